@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2016 Samsung Electronics America
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.samsung.msca.samsungvr.sdk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Submission cost of AsyncWorkQueue next to MonitorQueue, a copy of the synchronized
+ * ArrayList queue it replaced, with 1, 4 and 16 producers.  JMH threads are the producers;
+ * JMH cannot take a thread count from a @Param, so each producer count has its own methods.
+ * Both queues run one worker and empty items.
+ *
+ * throughput: producers submit as fast as they can, with at most MAX_IN_FLIGHT items queued
+ * latency: each producer submits one item and waits for it to start
+ *
+ *   ./gradlew :SDKLib:jmh
+ */
+
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsyncWorkQueueBenchmark {
+
+    private static final int MAX_IN_FLIGHT = 4096;
+
+    private static final AsyncWorkItemType TYPE = new AsyncWorkItemType() {
+        @Override
+        public String getName() {
+            return "Benchmark";
+        }
+    };
+
+    private static class Item extends AsyncWorkItem<AsyncWorkItemType> {
+
+        Semaphore mStarted;
+
+        Item() {
+            super(TYPE);
+        }
+
+        @Override
+        public void run() {
+            mStarted.release();
+        }
+    }
+
+    private interface Submitter {
+        void submit(Semaphore started);
+        void quit();
+    }
+
+    private static class WorkQueueSubmitter implements Submitter {
+
+        private final AsyncWorkQueue<AsyncWorkItemType, Item> mQueue = new AsyncWorkQueue<>(
+                new AsyncWorkQueue.AsyncWorkItemFactory<AsyncWorkItemType, Item>() {
+                    @Override
+                    public Item newWorkItem(AsyncWorkItemType type) {
+                        return new Item();
+                    }
+                }, 16, null, 0);
+
+        @Override
+        public void submit(Semaphore started) {
+            Item item = mQueue.obtainWorkItem(TYPE);
+            item.mStarted = started;
+            mQueue.enqueue(item);
+        }
+
+        @Override
+        public void quit() {
+            mQueue.quit();
+        }
+    }
+
+    /*
+     * Submission as it was before AsyncWorkQueue went lock free: producers and the worker
+     * share one monitor, the worker takes items with remove(0).
+     */
+
+    private static class MonitorQueue implements Submitter {
+
+        private final List<Item> mWorkItems = new ArrayList<>();
+        private final Thread mThread = new Thread() {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    Item item;
+                    synchronized (mWorkItems) {
+                        if (mWorkItems.isEmpty()) {
+                            try {
+                                mWorkItems.wait();
+                            } catch (InterruptedException ex) {
+                                break;
+                            }
+                            continue;
+                        }
+                        item = mWorkItems.remove(0);
+                    }
+                    item.run();
+                }
+            }
+        };
+
+        MonitorQueue() {
+            mThread.start();
+        }
+
+        @Override
+        public void submit(Semaphore started) {
+            Item item = new Item();
+            item.mStarted = started;
+            synchronized (mWorkItems) {
+                mWorkItems.add(item);
+                mWorkItems.notify();
+            }
+        }
+
+        @Override
+        public void quit() {
+            mThread.interrupt();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        final Semaphore mStarted = new Semaphore(0);
+    }
+
+    @Param({"AsyncWorkQueue", "MonitorQueue"})
+    public String queue;
+
+    private Submitter mSubmitter;
+    private Semaphore mInFlight;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mSubmitter = "MonitorQueue".equals(queue) ? new MonitorQueue() : new WorkQueueSubmitter();
+        mInFlight = new Semaphore(MAX_IN_FLIGHT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mSubmitter.quit();
+    }
+
+    private void submit() throws InterruptedException {
+        mInFlight.acquire();
+        mSubmitter.submit(mInFlight);
+    }
+
+    private void submitAndAwaitStart(Producer producer) throws InterruptedException {
+        mSubmitter.submit(producer.mStarted);
+        producer.mStarted.acquire();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(1)
+    public void throughput1Producer() throws InterruptedException {
+        submit();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(4)
+    public void throughput4Producers() throws InterruptedException {
+        submit();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(16)
+    public void throughput16Producers() throws InterruptedException {
+        submit();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(1)
+    public void latency1Producer(Producer producer) throws InterruptedException {
+        submitAndAwaitStart(producer);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(4)
+    public void latency4Producers(Producer producer) throws InterruptedException {
+        submitAndAwaitStart(producer);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(16)
+    public void latency16Producers(Producer producer) throws InterruptedException {
+        submitAndAwaitStart(producer);
+    }
+}
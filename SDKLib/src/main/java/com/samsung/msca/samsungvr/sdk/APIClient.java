@@ -26,6 +26,8 @@ import android.os.Handler;
 
 import org.json.JSONObject;
 
+import java.util.List;
+
 interface APIClient {
 
     final class Result {
@@ -48,6 +50,9 @@ interface APIClient {
     String getApiKey();
     AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> getAsyncWorkQueue();
     AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> getAsyncUploadQueue();
+    AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> getAsyncSegmentQueue();
+    List<VR.QueueMetrics> getQueueMetrics();
+    void setUploadRateLimit(String type, long bytesPerSecond);
     boolean login(String email, String password, VR.Result.Login callback, Handler handler,
                   Object closure);
     boolean loginSamsungAccount(String samsung_sso_token, String api_server, String auth_server,
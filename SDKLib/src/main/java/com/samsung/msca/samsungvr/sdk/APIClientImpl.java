@@ -23,19 +23,33 @@
 package com.samsung.msca.samsungvr.sdk;
 
 import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import org.json.JSONObject;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 class APIClientImpl extends Container.BaseImpl implements APIClient {
 
     private final String mEndPoint, mApiKey;
+    private final int mNumVideoUploadConnections, mVideoUploadUrlLookAhead;
+    private final long mVideoUploadUrlMaxAge;
+    private final boolean mMapVideoUploadChunks, mVerifyUploads;
+    private final int mVideoUploadRetryBudget;
+    private final long mVideoUploadRetryBackoff, mVideoUploadMaxRetryBackoff;
+    private final UploadJournal mUploadJournal;
+    private final UploadRateLimiter mUploadRateLimiter;
+    private final ConcurrentHashMap<String, UploadRateLimiter> mTypeUploadRateLimiters =
+            new ConcurrentHashMap<>();
     private final HttpPlugin.RequestFactory mHttpRequestFactory;
+    private final Executor mExecutor;
 
     private final AsyncWorkQueue.AsyncWorkItemFactory mWorkItemFactory =
             new AsyncWorkQueue.AsyncWorkItemFactory<ClientWorkItemType, ClientWorkItem<?>>() {
@@ -54,14 +68,19 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
         }
     };
 
-    private final AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> mAsyncWorkQueue = new AsyncWorkQueue(mWorkItemFactory, 8 * MUL, mQueueObserver, 0);
-    private final AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> mAsyncUploadQueue = new AsyncWorkQueue(mWorkItemFactory, 1024 * MUL, mQueueObserver, 0);
+    private final AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> mAsyncWorkQueue;
+    private final AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> mAsyncUploadQueue;
+    private final AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> mAsyncSegmentQueue;
 
     static final String HEADER_API_KEY = "X-API-KEY";
 
     static boolean newInstance(String endPoint, String apiKey, HttpPlugin.RequestFactory httpRequestFactory,
-                               APIClient.Result.Init callback, Handler handler, Object closure) {
-        APIClientImpl result = new APIClientImpl(endPoint, apiKey, httpRequestFactory);
+                               VR.Options options, APIClient.Result.Init callback, Handler handler,
+                               Object closure) {
+        if (null == options) {
+            options = new VR.Options();
+        }
+        APIClientImpl result = new APIClientImpl(endPoint, apiKey, httpRequestFactory, options);
         if (null != callback) {
             new Util.SuccessWithResultCallbackNotifier<APIClient>(result).setNoLock(callback, handler, closure).post();
         }
@@ -76,20 +95,202 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
 
     private final StateManager<APIClient> mStateManager;
 
-    private APIClientImpl(String endPoint, String apiKey, HttpPlugin.RequestFactory httpRequestFactory) {
+    private APIClientImpl(String endPoint, String apiKey, HttpPlugin.RequestFactory httpRequestFactory,
+                          VR.Options options) {
         registerType(UserImpl.sType, true);
         registerType(UnverifiedUserImpl.sType, false);
 
+        mAsyncWorkQueue = new AsyncWorkQueue(mWorkItemFactory, 8 * MUL, options.getNumWorkers(),
+                options.getExecutor(), mQueueObserver, 0);
+        mAsyncUploadQueue = new AsyncWorkQueue(mWorkItemFactory, 1024 * MUL,
+                options.getNumUploadWorkers(), options.getExecutor(), mQueueObserver, 0);
+        mAsyncSegmentQueue = new AsyncWorkQueue(mWorkItemFactory, 256 * MUL,
+                options.getNumSegmentWorkers(), options.getExecutor(), mQueueObserver, 0);
+        if (options.hasUploadBacklogLimits()) {
+            AsyncWorkQueue.BacklogObserver backlogObserver = newBacklogObserver(
+                    options.getUploadBacklogListener(), options.getUploadBacklogHandler());
+            mAsyncUploadQueue.setBacklogLimits(options.getMaxUploadBacklogItems(),
+                    options.getMaxUploadBacklogBytes(), options.getUploadBacklogPolicy(),
+                    options.getUploadBacklogBlockTimeout(), backlogObserver);
+            mAsyncSegmentQueue.setBacklogLimits(options.getMaxUploadBacklogItems(),
+                    options.getMaxUploadBacklogBytes(), options.getUploadBacklogPolicy(),
+                    options.getUploadBacklogBlockTimeout(), backlogObserver);
+        }
+        AsyncWorkQueue.MetricsObserver metricsObserver = newMetricsObserver(
+                options.getQueueMetricsListener(), options.getQueueMetricsHandler());
+        mAsyncWorkQueue.setMetricsObserver(metricsObserver);
+        mAsyncUploadQueue.setMetricsObserver(metricsObserver);
+        mAsyncSegmentQueue.setMetricsObserver(metricsObserver);
+
         mEndPoint = endPoint;
         mApiKey = apiKey;
+        mExecutor = options.getExecutor();
+        mNumVideoUploadConnections = options.getNumVideoUploadConnections();
+        mVideoUploadUrlLookAhead = options.getVideoUploadUrlLookAhead();
+        mVideoUploadUrlMaxAge = options.getVideoUploadUrlMaxAge();
+        mMapVideoUploadChunks = options.shouldMapVideoUploadChunks();
+        mVerifyUploads = options.shouldVerifyUploads();
+        mVideoUploadRetryBudget = options.getVideoUploadRetryBudget();
+        mVideoUploadRetryBackoff = options.getVideoUploadRetryBackoff();
+        mVideoUploadMaxRetryBackoff = options.getVideoUploadMaxRetryBackoff();
+        mUploadJournal = (null != options.getUploadJournalDir()) ?
+                new UploadJournal(options.getUploadJournalDir()) : null;
+        mUploadRateLimiter = new UploadRateLimiter(options.getUploadRateLimit());
         mHttpRequestFactory = httpRequestFactory;
         mStateManager = new StateManager<>((APIClient)this, State.INITIALIZED);
     }
 
+    /*
+     * Shared by both upload lanes, reports their sum
+     */
+
+    private AsyncWorkQueue.BacklogObserver newBacklogObserver(
+            final VR.BacklogListener listener, Handler handler) {
+        if (null == listener) {
+            return null;
+        }
+        final Handler listenerHandler = (null != handler) ? handler : new Handler(Looper.getMainLooper());
+        return new AsyncWorkQueue.BacklogObserver() {
+
+            private final int[] mNumItems = new int[2];
+            private final long[] mNumBytes = new long[2];
+
+            @Override
+            public void onBacklogChanged(AsyncWorkQueue<?, ?> queue, int numItems,
+                                         long numBytes) {
+                final int totalItems;
+                final long totalBytes;
+                synchronized (this) {
+                    int lane = (queue == mAsyncSegmentQueue) ? 1 : 0;
+                    mNumItems[lane] = numItems;
+                    mNumBytes[lane] = numBytes;
+                    totalItems = mNumItems[0] + mNumItems[1];
+                    totalBytes = mNumBytes[0] + mNumBytes[1];
+                }
+                listenerHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onBacklogChanged(totalItems, totalBytes);
+                    }
+                });
+            }
+        };
+    }
+
+    private AsyncWorkQueue.MetricsObserver newMetricsObserver(
+            final VR.QueueMetricsListener listener, Handler handler) {
+        if (null == listener) {
+            return null;
+        }
+        final Handler listenerHandler = (null != handler) ? handler : new Handler(Looper.getMainLooper());
+        return new AsyncWorkQueue.MetricsObserver() {
+            @Override
+            public void onWorkItemCompleted(AsyncWorkQueue<?, ?> queue, final String type,
+                                            final long waitTime, final long serviceTime,
+                                            final int numQueued) {
+                final String queueName = getQueueName(queue);
+                listenerHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onRequestCompleted(queueName, type, waitTime, serviceTime,
+                                numQueued);
+                    }
+                });
+            }
+        };
+    }
+
+    private String getQueueName(AsyncWorkQueue<?, ?> queue) {
+        if (queue == mAsyncUploadQueue) {
+            return VR.QueueMetrics.QUEUE_UPLOADS;
+        }
+        if (queue == mAsyncSegmentQueue) {
+            return VR.QueueMetrics.QUEUE_SEGMENTS;
+        }
+        return VR.QueueMetrics.QUEUE_REQUESTS;
+    }
+
     HttpPlugin.RequestFactory getRequestFactory() {
         return mHttpRequestFactory;
     }
 
+    /*
+     * The application's executor, null if the SDK runs its work on threads of its own
+     */
+
+    Executor getExecutor() {
+        return mExecutor;
+    }
+
+    int getNumVideoUploadConnections() {
+        return mNumVideoUploadConnections;
+    }
+
+    int getVideoUploadUrlLookAhead() {
+        return mVideoUploadUrlLookAhead;
+    }
+
+    long getVideoUploadUrlMaxAge() {
+        return mVideoUploadUrlMaxAge;
+    }
+
+    boolean shouldMapVideoUploadChunks() {
+        return mMapVideoUploadChunks;
+    }
+
+    boolean shouldVerifyUploads() {
+        return mVerifyUploads;
+    }
+
+    int getVideoUploadRetryBudget() {
+        return mVideoUploadRetryBudget;
+    }
+
+    long getVideoUploadRetryBackoff() {
+        return mVideoUploadRetryBackoff;
+    }
+
+    long getVideoUploadMaxRetryBackoff() {
+        return mVideoUploadMaxRetryBackoff;
+    }
+
+    /*
+     * Null if the application did not ask for one
+     */
+
+    UploadJournal getUploadJournal() {
+        return mUploadJournal;
+    }
+
+    /*
+     * The limiter of all uploads when type is null, else the limiter of uploads of that
+     * type, null if none was ever set for it
+     */
+
+    UploadRateLimiter getUploadRateLimiter(String type) {
+        if (null == type) {
+            return mUploadRateLimiter;
+        }
+        return mTypeUploadRateLimiters.get(type);
+    }
+
+    @Override
+    public void setUploadRateLimit(String type, long bytesPerSecond) {
+        if (DEBUG) {
+            Log.d(TAG, "Upload rate limit type: " + type + " bytesPerSecond: " + bytesPerSecond);
+        }
+        UploadRateLimiter limiter = getUploadRateLimiter(type);
+        if (null != limiter) {
+            limiter.setRate(bytesPerSecond);
+            return;
+        }
+        limiter = new UploadRateLimiter(bytesPerSecond);
+        UploadRateLimiter existing = mTypeUploadRateLimiters.putIfAbsent(type, limiter);
+        if (null != existing) {
+            existing.setRate(bytesPerSecond);
+        }
+    }
+
 
     @Override
     synchronized public boolean destroy() {
@@ -99,6 +300,7 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
         mStateManager.setState(State.DESTROYING);
         mAsyncWorkQueue.quit();
         mAsyncUploadQueue.quit();
+        mAsyncSegmentQueue.quit();
         mStateManager.setState(State.DESTROYED);
         if (null != mDestroyCallback) {
             new Util.SuccessCallbackNotifier().setNoLock(mDestroyCallback).post();
@@ -120,6 +322,7 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
         mDestroyCallback = new ResultCallbackHolder().setNoLock(callback, handler, closure);
         mAsyncWorkQueue.quitAsync();
         mAsyncUploadQueue.quitAsync();
+        mAsyncSegmentQueue.quitAsync();
         return true;
     }
 
@@ -162,6 +365,20 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
         return mAsyncUploadQueue;
     }
 
+    @Override
+    public AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> getAsyncSegmentQueue() {
+        return mAsyncSegmentQueue;
+    }
+
+    @Override
+    public List<VR.QueueMetrics> getQueueMetrics() {
+        List<VR.QueueMetrics> result = new ArrayList<>();
+        result.addAll(mAsyncWorkQueue.getMetrics(getQueueName(mAsyncWorkQueue)));
+        result.addAll(mAsyncUploadQueue.getMetrics(getQueueName(mAsyncUploadQueue)));
+        result.addAll(mAsyncSegmentQueue.getMetrics(getQueueName(mAsyncSegmentQueue)));
+        return result;
+    }
+
     @Override
     public boolean login(String email, String password, VR.Result.Login callback, Handler handler, Object closure) {
         WorkItemPerformLogin workItem = mAsyncWorkQueue.obtainWorkItem(WorkItemPerformLogin.TYPE);
@@ -231,6 +448,16 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
             public WorkItemGetUserBySessionToken newInstance(APIClientImpl apiClient) {
                 return new WorkItemGetUserBySessionToken(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.AUTH;
+            }
+
+            @Override
+            public String getName() {
+                return "GetUserBySessionToken";
+            }
         };
 
         WorkItemGetUserBySessionToken(APIClientImpl apiClient) {
@@ -281,14 +508,12 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
                 }
 
                 int rsp = getResponseCode(request);
-                String data = readHttpStream(request, "code: " + rsp);
-                if (null == data) {
+                JSONObject jsonObject = readHttpJson(request, "code: " + rsp);
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
 
-                JSONObject jsonObject = new JSONObject(data);
-
                 if (isHTTPSuccess(rsp)) {
                     if (!jsonObject.optBoolean("authenticated", false)) {
                         dispatchFailure(VR.Result.GetUserBySessionToken.STATUS_TOKEN_INVALID_OR_EXPIRED);
@@ -320,6 +545,16 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
             public WorkItemPerformLogin newInstance(APIClientImpl apiClient) {
                 return new WorkItemPerformLogin(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.AUTH;
+            }
+
+            @Override
+            public String getName() {
+                return "PerformLogin";
+            }
         };
 
         WorkItemPerformLogin(APIClientImpl apiClient) {
@@ -379,12 +614,11 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
                 }
 
                 int rsp = getResponseCode(request);
-                String data2 = readHttpStream(request, "code: " + rsp);
-                if (null == data2) {
+                JSONObject jsonObject = readHttpJson(request, "code: " + rsp);
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
-                JSONObject jsonObject = new JSONObject(data2);
 
                 if (isHTTPSuccess(rsp)) {
                     User user = mAPIClient.containerOnCreateOfContainedInServiceLocked(UserImpl.sType, jsonObject);
@@ -433,6 +667,16 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
             public WorkItemPerformLoginSamsungAccount newInstance(APIClientImpl apiClient) {
                 return new WorkItemPerformLoginSamsungAccount(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.AUTH;
+            }
+
+            @Override
+            public String getName() {
+                return "PerformLoginSamsungAccount";
+            }
         };
 
         WorkItemPerformLoginSamsungAccount(APIClientImpl apiClient) {
@@ -501,12 +745,11 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
                 }
 
                 int rsp = getResponseCode(request);
-                String data2 = readHttpStream(request, "code: " + rsp);
-                if (null == data2) {
+                JSONObject jsonObject = readHttpJson(request, "code: " + rsp);
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
-                JSONObject jsonObject = new JSONObject(data2);
 
                 if (isHTTPSuccess(rsp)) {
                     User user = mAPIClient.containerOnCreateOfContainedInServiceLocked(UserImpl.sType, jsonObject);
@@ -552,12 +795,27 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
             public WorkItemGetRegionInfo newInstance(APIClientImpl apiClient) {
                 return new WorkItemGetRegionInfo(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.AUTH;
+            }
+
+            @Override
+            public String getName() {
+                return "GetRegionInfo";
+            }
         };
 
         WorkItemGetRegionInfo(APIClientImpl apiClient) {
             super(apiClient, TYPE);
         }
 
+        @Override
+        protected Object getCoalesceKey() {
+            return toCoalesceKey();
+        }
+
 
         @Override
         protected synchronized void recycle() {
@@ -588,14 +846,12 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
                 }
 
                 int rsp = getResponseCode(request);
-                String data = readHttpStream(request, "code: " + rsp);
-                if (null == data) {
-                    dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
+                JSONObject jsonObject = readHttpJsonIfSuccess(request, rsp);
+                if (null == jsonObject) {
                     return;
                 }
 
                 if (isHTTPSuccess(rsp)) {
-                    JSONObject jsonObject = new JSONObject(data);
                     RegionInfoImpl regionInfo = new RegionInfoImpl();
                     regionInfo.mUGCCountry = jsonObject.getBoolean("isUGCCountry");
                     regionInfo.mClientRegion = jsonObject.getString("region");
@@ -620,6 +876,16 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
             public WorkItemGetRegionInfoEx newInstance(APIClientImpl apiClient) {
                 return new WorkItemGetRegionInfoEx(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.AUTH;
+            }
+
+            @Override
+            public String getName() {
+                return "GetRegionInfoEx";
+            }
         };
 
 
@@ -638,6 +904,11 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
             super(apiClient, TYPE);
         }
 
+        @Override
+        protected Object getCoalesceKey() {
+            return toCoalesceKey(mSessionToken, mRegionCode);
+        }
+
 
         @Override
         protected synchronized void recycle() {
@@ -676,14 +947,12 @@ class APIClientImpl extends Container.BaseImpl implements APIClient {
                 }
 
                 int rsp = getResponseCode(request);
-                String data = readHttpStream(request, "code: " + rsp);
-                if (null == data) {
-                    dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
+                JSONObject jsonObject = readHttpJsonIfSuccess(request, rsp);
+                if (null == jsonObject) {
                     return;
                 }
 
                 if (isHTTPSuccess(rsp)) {
-                    JSONObject jsonObject = new JSONObject(data);
                     RegionInfoImpl regionInfo = new RegionInfoImpl();
                     regionInfo.mUGCCountry = jsonObject.getBoolean("isUGCCountry");
                     regionInfo.mClientRegion = jsonObject.getString("region");
@@ -22,6 +22,9 @@
 
 package com.samsung.msca.samsungvr.sdk;
 
+import android.os.SystemClock;
+
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 abstract class AsyncWorkItem<T extends AsyncWorkItemType> implements Runnable {
@@ -41,20 +44,271 @@ abstract class AsyncWorkItem<T extends AsyncWorkItemType> implements Runnable {
         mCancelled.set(true);
     }
 
+    /*
+     * True if cancel() was called, or if the deadline passed and this item was set to abort
+     * once started.  Long running items poll this, which is what makes an expired item stop
+     * mid way.
+     */
+
     boolean isCancelled() {
+        return mCancelled.get() || (mAbortOnDeadline && isExpired());
+    }
+
+    boolean isCancelRequested() {
         return mCancelled.get();
     }
 
+    private volatile long mDeadline;
+    private volatile boolean mAbortOnDeadline;
+
+    /**
+     * @param deadline SystemClock.elapsedRealtime() based time after which this item is no
+     *                 longer worth running, 0 for none.  The queue drops items that expire
+     *                 before they start, calling onExpired() instead of run().
+     * @param abortInFlight If true, the item also reports itself cancelled once the deadline
+     *                      passes while it is running.
+     */
+
+    void setDeadline(long deadline, boolean abortInFlight) {
+        mDeadline = Math.max(0, deadline);
+        mAbortOnDeadline = abortInFlight;
+    }
+
+    long getDeadline() {
+        return mDeadline;
+    }
+
+    boolean isExpired() {
+        long deadline = mDeadline;
+        return deadline > 0 && SystemClock.elapsedRealtime() >= deadline;
+    }
+
+    /**
+     * Called instead of run() when the deadline passed before this item was started.
+     */
+
+    protected void onExpired() {
+    }
+
     protected void recycle() {
         mCancelled.set(false);
+        mDeadline = 0;
+        mAbortOnDeadline = false;
         mIOBuf = null;
+        mOrderingKey = null;
+        mOwner = null;
+        mParentOwner = null;
     }
 
     protected byte mIOBuf[];
 
-    void renew(byte[] buf) {
-        mIOBuf = buf;
+    void renew() {
+        mIOBuf = null;
+        mOrderingKey = null;
+        mOwner = null;
+        mParentOwner = null;
+        mFollowers = null;
+        mPriority = getDefaultPriority();
+        mDeadline = 0;
+        mAbortOnDeadline = false;
         mCancelled.set(false);
+        mEnqueueTime = 0;
+        mStartTime = 0;
+        mEndTime = 0;
+    }
+
+    /*
+     * Set by the worker that runs this item, just before run() is called.
+     */
+
+    void attachIOBuf(byte[] buf) {
+        mIOBuf = buf;
+    }
+
+    private Object mOwner, mParentOwner;
+
+    /*
+     * The entities this item acts on, for example a live event and the user it belongs to.
+     * AsyncWorkQueue.cancelByOwner() cancels all items for either one. Either may be null.
+     */
+
+    void setOwners(Object owner, Object parentOwner) {
+        mOwner = owner;
+        mParentOwner = parentOwner;
+    }
+
+    Object getOwner() {
+        return mOwner;
+    }
+
+    Object getParentOwner() {
+        return mParentOwner;
+    }
+
+    /**
+     * Key under which AsyncWorkQueue.cancelByCancelKey() finds this item, null if it
+     * cannot be cancelled that way.
+     */
+
+    protected Object getCancelKey() {
+        return null;
+    }
+
+    private Object mOrderingKey;
+
+    /**
+     * Items sharing a non null ordering key are run one at a time and in the order in which
+     * they were enqueued, even on a queue with several workers.  Items with a null key are
+     * not ordered with respect to any other item.
+     */
+
+    void setOrderingKey(Object key) {
+        mOrderingKey = key;
+    }
+
+    Object getOrderingKey() {
+        return mOrderingKey;
+    }
+
+    private int mPriority;
+    private long mEnqueueSeq, mScheduleTime;
+
+    /**
+     * Priority level used by the queue. 0 is the most urgent, each level above that waits
+     * an extra AsyncWorkQueue.PRIORITY_AGING_MS behind more urgent items.
+     */
+
+    protected int getDefaultPriority() {
+        return 0;
+    }
+
+    void setPriority(int priority) {
+        mPriority = Math.max(0, priority);
+    }
+
+    int getPriority() {
+        return mPriority;
+    }
+
+    void setEnqueueSeq(long enqueueSeq) {
+        mEnqueueSeq = enqueueSeq;
+    }
+
+    void setScheduleTime(long scheduleTime) {
+        mScheduleTime = scheduleTime;
+    }
+
+    /**
+     * Bytes of payload this item holds in memory while it waits in a queue. Counted against
+     * the queue's backlog byte limit.
+     */
+
+    protected long getPayloadSize() {
+        return 0;
+    }
+
+    /**
+     * Called instead of run() when the queue drops this item, without running it, to make
+     * room for newer items.
+     */
+
+    protected void onDropped() {
+    }
+
+    /**
+     * Called instead of run() when the item was attached to another by coalescing and the
+     * queue was cleared, or quit, before the result could be shared.  The item is already
+     * cancelled.
+     */
+
+    protected void onCleared() {
+    }
+
+    private long mBacklogSize = -1;
+
+    /*
+     * Payload size counted against the queue's backlog while this item is queued, -1 if not
+     * counted. Only touched by the queue.
+     */
+
+    void setBacklogSize(long size) {
+        mBacklogSize = size;
+    }
+
+    long getBacklogSize() {
+        return mBacklogSize;
+    }
+
+    /**
+     * Items of the same type with equal, non null, coalesce keys make the same request.  A
+     * queue holding such an item, queued or running, attaches newer ones to it instead of
+     * running them.
+     */
+
+    protected Object getCoalesceKey() {
+        return null;
+    }
+
+    /**
+     * Delivers the result of this item, which has just run, to a follower attached to it
+     * by coalescing.  Returns false if there is no result to share, for example because this
+     * item was cancelled, in which case the follower is run on its own.
+     */
+
+    protected boolean shareResult(AsyncWorkItem<T> follower) {
+        return false;
+    }
+
+    /*
+     * Followers attached to this item by coalescing. Guarded by AsyncWorkQueue's lock.
+     */
+
+    List<AsyncWorkItem<T>> mFollowers;
+
+    /*
+     * Link in AsyncWorkQueue's submission stack. Published by the compare and set that
+     * pushes this item, so it needs no synchronization of its own.
+     */
+
+    AsyncWorkItem<T> mNextSubmitted;
+
+    long getEnqueueSeq() {
+        return mEnqueueSeq;
+    }
+
+    long getScheduleTime() {
+        return mScheduleTime;
+    }
+
+    private volatile long mEnqueueTime, mStartTime, mEndTime;
+
+    /*
+     * SystemClock.elapsedRealtime() based times at which the queue accepted this item, and
+     * started and ended running it, 0 if not there yet.  Set by the queue.
+     */
+
+    void setEnqueueTime(long enqueueTime) {
+        mEnqueueTime = enqueueTime;
+    }
+
+    long getEnqueueTime() {
+        return mEnqueueTime;
+    }
+
+    void setStartTime(long startTime) {
+        mStartTime = startTime;
+    }
+
+    long getStartTime() {
+        return mStartTime;
+    }
+
+    void setEndTime(long endTime) {
+        mEndTime = endTime;
+    }
+
+    long getEndTime() {
+        return mEndTime;
     }
 
 
@@ -23,4 +23,11 @@
 package com.samsung.msca.samsungvr.sdk;
 
 interface AsyncWorkItemType {
+
+    /**
+     * Name of the type in queue metrics and upload rate limits.  A literal, not derived from
+     * class names, which do not survive obfuscation.
+     */
+
+    String getName();
 }
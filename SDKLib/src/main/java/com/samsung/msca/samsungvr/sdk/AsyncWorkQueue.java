@@ -22,22 +22,97 @@
 
 package com.samsung.msca.samsungvr.sdk;
 
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 class AsyncWorkQueue<T extends AsyncWorkItemType, W extends AsyncWorkItem<T>> {
 
     private final boolean mShouldRecycleWorkItems;
-    private final List<W> mWorkItems = new ArrayList<>();
-    private final byte[] mIOBuf;
     private final long mJoinTimeout;
 
-    private W mActiveWorkItem;
+    /*
+     * Every item in the heap is eligible to run right away.  An item is ordered by its
+     * schedule time: the time it was enqueued plus PRIORITY_AGING_MS for every priority
+     * level it is below the most urgent one, then by enqueue sequence.  A low priority
+     * item therefore waits at most PRIORITY_AGING_MS per level behind more urgent items
+     * enqueued after it, and cannot starve.
+     */
+
+    static final long PRIORITY_AGING_MS = 2000;
+
+    private final Comparator<W> mScheduleComparator = new Comparator<W>() {
+        @Override
+        public int compare(W lhs, W rhs) {
+            long a = lhs.getScheduleTime(), b = rhs.getScheduleTime();
+            if (a == b) {
+                a = lhs.getEnqueueSeq();
+                b = rhs.getEnqueueSeq();
+            }
+            return (a < b) ? -1 : ((a > b) ? 1 : 0);
+        }
+    };
+
+    private final PriorityQueue<W> mWorkItems = new PriorityQueue<>(11, mScheduleComparator);
+    private long mEnqueueSeq = 0;
+
+    /*
+     * Submission path.  enqueue() never takes the mWorkItems lock: producers push onto this
+     * lock free stack, linked through AsyncWorkItem.mNextSubmitted, and whichever worker
+     * next holds the lock moves the whole stack into the heap.  mNumScheduled mirrors the
+     * heap size, so an idle worker can tell whether to park without taking the lock.
+     */
+
+    private final AtomicReference<W> mSubmitted = new AtomicReference<>();
+    private volatile int mNumScheduled = 0;
+
+    /*
+     * Only the oldest queued item of an ordering key is kept in the heap, and only while no
+     * other item of that key is active.  The rest wait here in FIFO order.  A key is present
+     * in this map as long as one of its items is in the heap or active.  Guarded by
+     * mWorkItems, as is the list of active items.
+     */
+
+    private final Map<Object, ArrayDeque<W>> mOrderedWorkItems = new HashMap<>();
+    private final List<W> mActiveWorkItems = new ArrayList<>();
+
+    /*
+     * Queued and active items indexed by cancel key and by owner, so that cancels do not
+     * walk the whole queue.  An item enters the index when it is drained from the submission
+     * stack and leaves it when it ends, is dropped or cleared.  Guarded by mWorkItems.
+     */
+
+    private final Map<Object, Set<W>> mWorkItemsByCancelKey = new HashMap<>();
+    private final Map<Object, Set<W>> mWorkItemsByOwner = new HashMap<>();
+
+    /*
+     * Queued or active items that newer identical items attach to, by coalesce key (see
+     * AsyncWorkItem.getCoalesceKey()).  An attached follower is never run.  When its leader
+     * ends, the leader shares its result with it, or, if the leader has no result worth
+     * sharing, the follower is submitted again on its own.  Guarded by mWorkItems.
+     */
+
+    private final Map<Object, W> mCoalescingLeaders = new HashMap<>();
 
     private final String TAG = Util.getLogTag(this);
     private static final boolean DEBUG = Util.DEBUG;
@@ -50,131 +125,993 @@ class AsyncWorkQueue<T extends AsyncWorkItemType, W extends AsyncWorkItem<T>> {
         void onQuit(AsyncWorkQueue<?, ?> queue);
     }
 
+    /*
+     * Called whenever the number of queued items or their payload bytes changes. Called with
+     * queue locks held, must not block or call back into the queue.
+     */
+
+    interface BacklogObserver {
+        void onBacklogChanged(AsyncWorkQueue<?, ?> queue, int numItems, long numBytes);
+    }
+
+    private static class BacklogLimits {
+
+        private final int mMaxItems;
+        private final long mMaxBytes, mBlockTimeout;
+        private final VR.BacklogPolicy mPolicy;
+        private final BacklogObserver mObserver;
+
+        private BacklogLimits(int maxItems, long maxBytes, VR.BacklogPolicy policy,
+                              long blockTimeout, BacklogObserver observer) {
+            mMaxItems = maxItems;
+            mMaxBytes = maxBytes;
+            mPolicy = (null == policy) ? VR.BacklogPolicy.FAIL_FAST : policy;
+            mBlockTimeout = blockTimeout;
+            mObserver = observer;
+        }
+    }
+
+    /*
+     * Queued items, submitted but not yet started, and their payload bytes.  Only tracked
+     * once limits are set.  Guarded by mBacklogLock, which may be taken while holding
+     * mWorkItems but never the other way around.
+     */
+
+    private volatile BacklogLimits mBacklogLimits;
+    private final Object mBacklogLock = new Object();
+    private int mBacklogItems = 0;
+    private long mBacklogBytes = 0;
+
     private final AsyncWorkItemFactory<T, W> mFactory;
-    private final Map<T, List<W>> mRecycledWorkItems = new HashMap<>();
+
+    /*
+     * Recycled work items, one pool per type.  Each pool holds at most POOL_CAPACITY items
+     * in an array of slots, each slot moved between null and an item by compare and set.
+     * A thread starts scanning at a slot picked by its id, so threads obtaining and
+     * recycling concurrently mostly touch different slots.  Items recycled into a full pool
+     * are left to the garbage collector.
+     */
+
+    static final int POOL_CAPACITY = 8;
+
+    static final class PoolStats {
+
+        private final long mHits, mMisses, mEvictions;
+
+        private PoolStats(long hits, long misses, long evictions) {
+            mHits = hits;
+            mMisses = misses;
+            mEvictions = evictions;
+        }
+
+        long getHits() {
+            return mHits;
+        }
+
+        long getMisses() {
+            return mMisses;
+        }
+
+        long getEvictions() {
+            return mEvictions;
+        }
+
+        @Override
+        public String toString() {
+            return "hits: " + mHits + " misses: " + mMisses + " evictions: " + mEvictions;
+        }
+    }
+
+    private class WorkItemPool {
+
+        private final AtomicReferenceArray<W> mSlots = new AtomicReferenceArray<>(POOL_CAPACITY);
+        private final AtomicLong mHits = new AtomicLong(), mMisses = new AtomicLong(),
+                mEvictions = new AtomicLong();
+
+        private int firstSlot() {
+            return (int)(Thread.currentThread().getId() % POOL_CAPACITY);
+        }
+
+        W obtain() {
+            int first = firstSlot();
+            for (int i = 0; i < POOL_CAPACITY; i += 1) {
+                int slot = (first + i) % POOL_CAPACITY;
+                W workItem = mSlots.get(slot);
+                if (null != workItem && mSlots.compareAndSet(slot, workItem, null)) {
+                    mHits.incrementAndGet();
+                    return workItem;
+                }
+            }
+            mMisses.incrementAndGet();
+            return null;
+        }
+
+        boolean recycle(W workItem) {
+            int first = firstSlot();
+            for (int i = 0; i < POOL_CAPACITY; i += 1) {
+                int slot = (first + i) % POOL_CAPACITY;
+                if (null == mSlots.get(slot) && mSlots.compareAndSet(slot, null, workItem)) {
+                    return true;
+                }
+            }
+            mEvictions.incrementAndGet();
+            return false;
+        }
+
+        PoolStats getStats() {
+            return new PoolStats(mHits.get(), mMisses.get(), mEvictions.get());
+        }
+    }
+
+    private final ConcurrentHashMap<T, WorkItemPool> mWorkItemPools = new ConcurrentHashMap<>();
+
+    /*
+     * Recycle pool counters of the given type, null if no item of that type was obtained
+     * from this queue yet.
+     */
+
+    PoolStats getPoolStats(T type) {
+        WorkItemPool pool = mWorkItemPools.get(type);
+        return (null != pool) ? pool.getStats() : null;
+    }
+
+    /*
+     * Latency and depth of each type of item going through the queue.  Wait time runs from
+     * enqueue() to the start of run(), service time from there to the end of run().  Both
+     * go into histograms of power of two buckets: bucket 0 counts times under 1 ms, bucket i
+     * times from 2^(i-1) up to 2^i ms, and the last one everything longer.  Recording only
+     * touches atomics, never a lock.
+     */
+
+    static final int LATENCY_BUCKETS = 20;
+
+    static int getLatencyBucket(long time) {
+        return Math.min(LATENCY_BUCKETS - 1,
+                64 - Long.numberOfLeadingZeros(Math.max(0, time)));
+    }
+
+    private static class LatencyHistogram {
+
+        private final AtomicLongArray mCounts = new AtomicLongArray(LATENCY_BUCKETS);
+        private final AtomicLong mTotal = new AtomicLong(), mMax = new AtomicLong();
+
+        void record(long time) {
+            time = Math.max(0, time);
+            mCounts.incrementAndGet(getLatencyBucket(time));
+            mTotal.addAndGet(time);
+            long max;
+            do {
+                max = mMax.get();
+            } while (time > max && !mMax.compareAndSet(max, time));
+        }
+
+        long[] getCounts() {
+            long[] result = new long[LATENCY_BUCKETS];
+            for (int i = 0; i < LATENCY_BUCKETS; i += 1) {
+                result[i] = mCounts.get(i);
+            }
+            return result;
+        }
+    }
+
+    private static class TypeMetrics {
+
+        private final String mName;
+        private final AtomicInteger mNumQueued = new AtomicInteger(),
+                mNumActive = new AtomicInteger();
+        private final AtomicLong mNumCoalesced = new AtomicLong(),
+                mNumDropped = new AtomicLong();
+        private final LatencyHistogram mWaitTimes = new LatencyHistogram(),
+                mServiceTimes = new LatencyHistogram();
+
+        private TypeMetrics(String name) {
+            mName = name;
+        }
+
+        VR.QueueMetrics getSnapshot(String queueName) {
+            return new VR.QueueMetrics(queueName, mName, mNumQueued.get(), mNumActive.get(),
+                    mNumCoalesced.get(), mNumDropped.get(),
+                    mWaitTimes.getCounts(), mWaitTimes.mTotal.get(), mWaitTimes.mMax.get(),
+                    mServiceTimes.getCounts(), mServiceTimes.mTotal.get(),
+                    mServiceTimes.mMax.get());
+        }
+    }
+
+    private final ConcurrentHashMap<T, TypeMetrics> mTypeMetrics = new ConcurrentHashMap<>();
+
+    private TypeMetrics getTypeMetrics(W workItem) {
+        T type = workItem.getType();
+        TypeMetrics result = mTypeMetrics.get(type);
+        if (null == result) {
+            TypeMetrics newMetrics = new TypeMetrics(type.getName());
+            result = mTypeMetrics.putIfAbsent(type, newMetrics);
+            if (null == result) {
+                result = newMetrics;
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Called on the worker thread after every item that ran, outside of queue locks.
+     */
+
+    interface MetricsObserver {
+        void onWorkItemCompleted(AsyncWorkQueue<?, ?> queue, String type, long waitTime,
+                                 long serviceTime, int numQueued);
+    }
+
+    private volatile MetricsObserver mMetricsObserver;
+
+    void setMetricsObserver(MetricsObserver observer) {
+        mMetricsObserver = observer;
+    }
+
+    /*
+     * A snapshot of the metrics of every type of item that was enqueued on this queue.
+     */
+
+    List<VR.QueueMetrics> getMetrics(String queueName) {
+        List<VR.QueueMetrics> result = new ArrayList<>();
+        for (TypeMetrics metrics : mTypeMetrics.values()) {
+            result.add(metrics.getSnapshot(queueName));
+        }
+        return result;
+    }
+
+    /*
+     * Number of items waiting or running, over all types
+     */
+
+    int getNumPending() {
+        int result = 0;
+        for (TypeMetrics metrics : mTypeMetrics.values()) {
+            result += metrics.mNumQueued.get() + metrics.mNumActive.get();
+        }
+        return result;
+    }
 
     private final AtomicBoolean mInterruptFlag = new AtomicBoolean(false);
+    private final AtomicInteger mLiveWorkers = new AtomicInteger(0);
+
+    /*
+     * A worker runs on its own thread, or, when the queue was given an executor, as a task on
+     * that executor.  A dedicated thread parks when there is no work.  An executor task
+     * returns its thread to the executor instead, and a producer submits the worker again
+     * when work shows up.  Either way at most one thread runs a given worker at a time, so
+     * the number of workers still bounds the parallelism, and scheduling, ordering and
+     * cancellation are the same.
+     */
+
+    private class Worker implements Runnable {
+
+        private final byte[] mIOBuf;
+        private final AtomicBoolean mParked;
+        private volatile Thread mThread;
+
+        private Worker(int ioBufSize, boolean parked) {
+            mIOBuf = new byte[ioBufSize];
+            mParked = new AtomicBoolean(parked);
+        }
+
+        /*
+         * Parked is published before the final check for work, and producers publish work
+         * before looking for a parked worker, so one of the two always sees the other.
+         * Returns false if this run of the worker should end.
+         */
+
+        private boolean awaitWork() {
+            if (null != mExecutor) {
+                /*
+                 * Work that showed up meanwhile is taken by this run, unless a producer
+                 * already claimed this worker and submitted a new run for it
+                 */
+                Thread thread = mThread;
+                mThread = null;
+                mParked.set(true);
+                if (hasWork() && mParked.compareAndSet(true, false)) {
+                    mThread = thread;
+                    return true;
+                }
+                return false;
+            }
+            mParked.set(true);
+            if (!hasWork()) {
+                if (DEBUG) {
+                    Log.d(TAG, "Waiting for work " + AsyncWorkQueue.this);
+                }
+                LockSupport.park(AsyncWorkQueue.this);
+                if (DEBUG) {
+                    Log.d(TAG, "Out of wait for work" + AsyncWorkQueue.this);
+                }
+            }
+            mParked.set(false);
+            return true;
+        }
+
+        private boolean hasWork() {
+            return (null != mSubmitted.get() || 0 != mNumScheduled);
+        }
+
+        private void wake() {
+            if (null == mExecutor) {
+                LockSupport.unpark(mThread);
+                return;
+            }
+            try {
+                mExecutor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                if (DEBUG) {
+                    Log.d(TAG, "Executor rejected worker " + this + " on " + AsyncWorkQueue.this, ex);
+                }
+                mParked.set(true);
+            }
+        }
+
+        private void interrupt() {
+            Thread thread = mThread;
+            if (null != thread) {
+                thread.interrupt();
+            }
+        }
 
-    private final Thread mThread = new Thread() {
         @Override
         public void run() {
+            Thread thread = Thread.currentThread();
+            if (null != mExecutor) {
+                mThread = thread;
+                mLiveWorkers.incrementAndGet();
+            }
             if (DEBUG) {
-                Log.d(TAG, "Running worker thread " + AsyncWorkQueue.this);
+                Log.d(TAG, "Running worker " + this + " on " + AsyncWorkQueue.this);
             }
-            while (!isInterrupted() && !mInterruptFlag.get()) {
+            while (!thread.isInterrupted() && !mInterruptFlag.get()) {
+                W activeWorkItem;
+                List<W> followers = null;
                 synchronized (mWorkItems) {
-                    if (mWorkItems.isEmpty()) {
-                        try {
-                            if (DEBUG) {
-                                Log.d(TAG, "Waiting for work " + AsyncWorkQueue.this);
-                            }
-                            mWorkItems.wait();
-                        } catch (InterruptedException ex) {
-                            if (DEBUG) {
-                                Log.d(TAG, "Got interrupted during wait " + AsyncWorkQueue.this, ex);
-                            }
-                            break;
-                        }
-                        if (DEBUG) {
-                            Log.d(TAG, "Out of wait for work" + AsyncWorkQueue.this);
-                        }
+                    drainSubmittedLocked();
+                    activeWorkItem = nextWorkItemLocked();
+                    if (null != activeWorkItem) {
+                        onWorkItemStartLocked(activeWorkItem);
                     }
-                    if (mWorkItems.isEmpty()) {
-                        if (DEBUG) {
-                            Log.d(TAG, "Interrupted on a empty work queue " + AsyncWorkQueue.this);
-                        }
+                }
+                if (null == activeWorkItem) {
+                    if (awaitWork()) {
                         continue;
                     }
-                    mActiveWorkItem = mWorkItems.remove(0);
+                    break;
                 }
-                if (DEBUG) {
-                    Log.d(TAG, "Running work item: " + mActiveWorkItem);
+                if (mNumScheduled > 0) {
+                    /*
+                     * More runnable items than this worker can take, hand them to an idle one
+                     */
+                    wakeIdleWorker();
                 }
-                mActiveWorkItem.run();
+                TypeMetrics metrics = getTypeMetrics(activeWorkItem);
+                long startTime = SystemClock.elapsedRealtime();
+                activeWorkItem.setStartTime(startTime);
+                metrics.mNumQueued.decrementAndGet();
+                metrics.mNumActive.incrementAndGet();
+                metrics.mWaitTimes.record(startTime - activeWorkItem.getEnqueueTime());
+                activeWorkItem.attachIOBuf(mIOBuf);
                 if (DEBUG) {
-                    Log.d(TAG, "Completed work item: " + mActiveWorkItem + " on " +
-                            AsyncWorkQueue.this + " interrupted: " + isInterrupted());
-                }
-
-                if (mShouldRecycleWorkItems) {
-                    mActiveWorkItem.recycle();
-                    synchronized (mRecycledWorkItems) {
-                        T type = mActiveWorkItem.getType();
-                        List<W> recycledList = mRecycledWorkItems.get(type);
-                        if (null != recycledList) {
-                            if (DEBUG) {
-                                Log.d(TAG, "Recycled work item: " + Util.getHashCode(mActiveWorkItem) + " type: " + type);
-                            }
-                            recycledList.add(mActiveWorkItem);
+                    Log.d(TAG, "Running work item: " + activeWorkItem);
+                }
+                try {
+                    if (activeWorkItem.isExpired()) {
+                        if (DEBUG) {
+                            Log.d(TAG, "Expired before start, work item: " + activeWorkItem);
                         }
+                        activeWorkItem.onExpired();
+                    } else {
+                        activeWorkItem.run();
+                    }
+                } finally {
+                    if (DEBUG) {
+                        Log.d(TAG, "Completed work item: " + activeWorkItem + " on " +
+                                AsyncWorkQueue.this + " interrupted: " + thread.isInterrupted());
                     }
+                    synchronized (mWorkItems) {
+                        followers = onWorkItemEndLocked(activeWorkItem);
+                    }
+                    activeWorkItem.setEndTime(SystemClock.elapsedRealtime());
+                    metrics.mNumActive.decrementAndGet();
+                    metrics.mServiceTimes.record(activeWorkItem.getEndTime() - startTime);
                 }
-                synchronized (mWorkItems) {
-                    mActiveWorkItem = null;
+
+                MetricsObserver metricsObserver = mMetricsObserver;
+                if (null != metricsObserver) {
+                    metricsObserver.onWorkItemCompleted(AsyncWorkQueue.this, metrics.mName,
+                            startTime - activeWorkItem.getEnqueueTime(),
+                            activeWorkItem.getEndTime() - startTime, metrics.mNumQueued.get());
                 }
+                completeFollowers(activeWorkItem, followers);
+                recycleWorkItem(activeWorkItem);
             }
             if (DEBUG) {
-                Log.d(TAG, "Quitting worker thread " + AsyncWorkQueue.this);
+                Log.d(TAG, "Quitting worker " + this + " on " + AsyncWorkQueue.this);
             }
-            if (mShouldRecycleWorkItems) {
-                synchronized (mRecycledWorkItems) {
-                    mRecycledWorkItems.clear();
+            if (null != mExecutor) {
+                if (thread == mThread) {
+                    mThread = null;
+                }
+                if (mInterruptFlag.get()) {
+                    /*
+                     * Do not leave quitAsync()'s interrupt behind on the executor's thread
+                     */
+                    Thread.interrupted();
                 }
             }
-            if (null != mObserver) {
-                mObserver.onQuit(AsyncWorkQueue.this);
+            onWorkerQuit();
+        }
+    }
+
+    private final AtomicBoolean mQuitNotified = new AtomicBoolean(false);
+
+    /*
+     * A dedicated thread only ends when the queue quits, or if an item throws.  An executor
+     * task ends whenever its worker runs out of work, which only counts once the queue quits.
+     */
+
+    private void onWorkerQuit() {
+        synchronized (mLiveWorkers) {
+            if (mLiveWorkers.decrementAndGet() > 0) {
+                return;
             }
+            mLiveWorkers.notifyAll();
         }
-    };
+        if (null != mExecutor && !mInterruptFlag.get()) {
+            return;
+        }
+        if (!mQuitNotified.compareAndSet(false, true)) {
+            return;
+        }
+        if (mShouldRecycleWorkItems) {
+            mWorkItemPools.clear();
+        }
+        if (null != mObserver) {
+            mObserver.onQuit(AsyncWorkQueue.this);
+        }
+    }
+
+    private void recycleWorkItem(W workItem) {
+        if (!mShouldRecycleWorkItems) {
+            return;
+        }
+        workItem.recycle();
+        T type = workItem.getType();
+        WorkItemPool pool = mWorkItemPools.get(type);
+        if (null != pool && pool.recycle(workItem)) {
+            if (DEBUG) {
+                Log.d(TAG, "Recycled work item: " + Util.getHashCode(workItem) + " type: " + type);
+            }
+        }
+    }
+
+    private W nextWorkItemLocked() {
+        W result = mWorkItems.poll();
+        mNumScheduled = mWorkItems.size();
+        return result;
+    }
+
+    private void drainSubmittedLocked() {
+        W head = mSubmitted.getAndSet(null);
+        if (null == head) {
+            return;
+        }
+        /*
+         * The stack holds the newest item first, reverse it so that items are seen in
+         * submission order and items with the same ordering key stay FIFO
+         */
+        W ordered = null;
+        while (null != head) {
+            W next = (W)head.mNextSubmitted;
+            head.mNextSubmitted = ordered;
+            ordered = head;
+            head = next;
+        }
+        while (null != ordered) {
+            W next = (W)ordered.mNextSubmitted;
+            ordered.mNextSubmitted = null;
+            indexLocked(ordered);
+            if (!coalesceLocked(ordered)) {
+                enqueueLocked(ordered);
+            }
+            ordered = next;
+        }
+        mNumScheduled = mWorkItems.size();
+    }
+
+    private void addToIndexLocked(Map<Object, Set<W>> index, Object key, W workItem) {
+        if (null == key) {
+            return;
+        }
+        Set<W> workItems = index.get(key);
+        if (null == workItems) {
+            workItems = new HashSet<>();
+            index.put(key, workItems);
+        }
+        workItems.add(workItem);
+    }
+
+    private void removeFromIndexLocked(Map<Object, Set<W>> index, Object key, W workItem) {
+        if (null == key) {
+            return;
+        }
+        Set<W> workItems = index.get(key);
+        if (null != workItems && workItems.remove(workItem) && workItems.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private void indexLocked(W workItem) {
+        addToIndexLocked(mWorkItemsByCancelKey, workItem.getCancelKey(), workItem);
+        addToIndexLocked(mWorkItemsByOwner, workItem.getOwner(), workItem);
+        addToIndexLocked(mWorkItemsByOwner, workItem.getParentOwner(), workItem);
+    }
+
+    private void unindexLocked(W workItem) {
+        removeFromIndexLocked(mWorkItemsByCancelKey, workItem.getCancelKey(), workItem);
+        removeFromIndexLocked(mWorkItemsByOwner, workItem.getOwner(), workItem);
+        removeFromIndexLocked(mWorkItemsByOwner, workItem.getParentOwner(), workItem);
+    }
+
+    private void wakeIdleWorker() {
+        for (Worker worker : mWorkers) {
+            if (worker.mParked.compareAndSet(true, false)) {
+                worker.wake();
+                return;
+            }
+        }
+    }
+
+    private void onWorkItemStartLocked(W workItem) {
+        mActiveWorkItems.add(workItem);
+        releaseBacklog(workItem);
+    }
+
+    private List<W> onWorkItemEndLocked(W workItem) {
+        mActiveWorkItems.remove(workItem);
+        unindexLocked(workItem);
+        /*
+         * The worker ending this item loops back and picks up the next item of the same
+         * ordering key, or hands it on
+         */
+        scheduleNextOrderedLocked(workItem.getOrderingKey());
+        return detachFollowersLocked(workItem);
+    }
+
+    /*
+     * Moves the oldest waiting item of the ordering key to the heap, once the item of that
+     * key that was in the heap or active is gone.
+     */
+
+    private void scheduleNextOrderedLocked(Object key) {
+        if (null == key) {
+            return;
+        }
+        ArrayDeque<W> waiting = mOrderedWorkItems.get(key);
+        W next = (null != waiting) ? waiting.poll() : null;
+        if (null == next) {
+            mOrderedWorkItems.remove(key);
+            return;
+        }
+        mWorkItems.add(next);
+        mNumScheduled = mWorkItems.size();
+    }
+
+    private boolean coalesceLocked(W workItem) {
+        Object key = workItem.getCoalesceKey();
+        if (null == key) {
+            return false;
+        }
+        W leader = mCoalescingLeaders.get(key);
+        if (null == leader || isOvertakenLocked(leader)) {
+            mCoalescingLeaders.put(key, workItem);
+            return false;
+        }
+        if (null == leader.mFollowers) {
+            leader.mFollowers = new ArrayList<>();
+        }
+        leader.mFollowers.add(workItem);
+        releaseBacklog(workItem);
+        getTypeMetrics(workItem).mNumQueued.decrementAndGet();
+        if (DEBUG) {
+            Log.d(TAG, "Coalesced work item: " + Util.getHashCode(workItem) + " into: "
+                    + Util.getHashCode(leader));
+        }
+        return true;
+    }
+
+    /*
+     * True if another item with the same ordering key was enqueued after the given one, for
+     * example an update following a query.  A newer request must not share the result of
+     * an older one that does not see the update.
+     */
+
+    private boolean isOvertakenLocked(W workItem) {
+        Object key = workItem.getOrderingKey();
+        if (null == key) {
+            return false;
+        }
+        ArrayDeque<W> waiting = mOrderedWorkItems.get(key);
+        return (null != waiting && !waiting.isEmpty() && workItem != waiting.peekLast());
+    }
+
+    private List<W> detachFollowersLocked(W leader) {
+        Object key = leader.getCoalesceKey();
+        if (null != key && leader == mCoalescingLeaders.get(key)) {
+            mCoalescingLeaders.remove(key);
+        }
+        List<W> followers = (List<W>)leader.mFollowers;
+        leader.mFollowers = null;
+        if (null != followers) {
+            for (W follower : followers) {
+                unindexLocked(follower);
+            }
+        }
+        return followers;
+    }
+
+    private void completeFollowers(W leader, List<W> followers) {
+        if (null == followers) {
+            return;
+        }
+        for (W follower : followers) {
+            if (leader.shareResult(follower)) {
+                getTypeMetrics(follower).mNumCoalesced.incrementAndGet();
+                recycleWorkItem(follower);
+            } else if (mInterruptFlag.get()) {
+                /*
+                 * Do not bring work back to life on a queue that quit
+                 */
+                cancelFollowers(Collections.singletonList(follower));
+            } else {
+                submit(follower);
+            }
+        }
+    }
+
+    /*
+     * Followers never make it to a worker, so complete them here, each with its own
+     * cancelled result.
+     */
+
+    private void cancelFollowers(List<W> followers) {
+        for (W follower : followers) {
+            follower.cancel();
+            follower.onCleared();
+            recycleWorkItem(follower);
+        }
+    }
+
+    private void enqueueLocked(W workItem) {
+        workItem.setEnqueueSeq(mEnqueueSeq++);
+
+        Object key = workItem.getOrderingKey();
+        if (null != key) {
+            ArrayDeque<W> waiting = mOrderedWorkItems.get(key);
+            if (null != waiting) {
+                waiting.add(workItem);
+                return;
+            }
+            mOrderedWorkItems.put(key, new ArrayDeque<W>());
+        }
+        mWorkItems.add(workItem);
+    }
+
+    private final List<Worker> mWorkers = new ArrayList<>();
 
     private static final boolean RECYCLE_WORK_ITEMS = true;
     private static final int IO_BUF_SIZE = 4096;
 
     AsyncWorkQueue(AsyncWorkItemFactory<T, W> factory, int ioBufSize, Observer observer,
                    long joinTimeout) {
-        this(factory, RECYCLE_WORK_ITEMS, ioBufSize, observer, 0);
+        this(factory, RECYCLE_WORK_ITEMS, ioBufSize, 1, null, observer, 0);
+    }
+
+    AsyncWorkQueue(AsyncWorkItemFactory<T, W> factory, int ioBufSize, int numWorkers,
+                   Observer observer, long joinTimeout) {
+        this(factory, RECYCLE_WORK_ITEMS, ioBufSize, numWorkers, null, observer, joinTimeout);
+    }
+
+    AsyncWorkQueue(AsyncWorkItemFactory<T, W> factory, int ioBufSize, int numWorkers,
+                   Executor executor, Observer observer, long joinTimeout) {
+        this(factory, RECYCLE_WORK_ITEMS, ioBufSize, numWorkers, executor, observer, joinTimeout);
     }
 
     private final Observer mObserver;
+    private final Executor mExecutor;
+    private final List<Thread> mThreads = new ArrayList<>();
+
+    /**
+     * @param numWorkers Number of workers. Items with the same ordering key (see
+     *                   AsyncWorkItem.getOrderingKey()) are run one at a time in FIFO order,
+     *                   and items with different or null keys run in parallel, most urgent
+     *                   priority first.  Each worker owns an I/O buffer of ioBufSize bytes.
+     * @param executor If null, each worker gets a dedicated thread.  Otherwise workers run as
+     *                 tasks on this executor, at most numWorkers of them at a time.
+     */
 
     AsyncWorkQueue(AsyncWorkItemFactory<T, W> factory, boolean shouldRecycle, int ioBufSize,
-                   Observer observer, long joinTimeout) {
+                   int numWorkers, Executor executor, Observer observer, long joinTimeout) {
         mFactory = factory;
         mObserver = observer;
         mShouldRecycleWorkItems = shouldRecycle;
-        mIOBuf = new byte[ioBufSize];
         mJoinTimeout = joinTimeout;
-        mThread.start();
+        mExecutor = executor;
+        for (int i = Math.max(1, numWorkers); i > 0; i -= 1) {
+            mWorkers.add(new Worker(ioBufSize, null != executor));
+        }
+        if (null != executor) {
+            return;
+        }
+        for (Worker worker : mWorkers) {
+            Thread thread = new Thread(worker);
+            worker.mThread = thread;
+            mThreads.add(thread);
+        }
+        mLiveWorkers.set(mThreads.size());
+        for (Thread thread : mThreads) {
+            thread.start();
+        }
+    }
+
+    int getNumWorkers() {
+        return mWorkers.size();
+    }
+
+    private boolean isRunning() {
+        if (mInterruptFlag.get()) {
+            return false;
+        }
+        if (null != mExecutor) {
+            return true;
+        }
+        for (Thread thread : mThreads) {
+            if (thread.isAlive() && !thread.isInterrupted()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Limits the number of queued items and the payload bytes they hold (see
+     * AsyncWorkItem.getPayloadSize()). Items already running do not count.  Once a limit is
+     * reached, enqueue() applies policy: FAIL_FAST rejects the new item, BLOCK waits up to
+     * blockTimeout ms for room, DROP_OLDEST drops queued items of the same type, oldest first,
+     * until the new item fits.  A single item is always accepted into an empty backlog, no
+     * matter its size.  Must be called before the first enqueue().
+     *
+     * @param maxItems 0 or less for no limit
+     * @param maxBytes 0 or less for no limit
+     */
+
+    void setBacklogLimits(int maxItems, long maxBytes, VR.BacklogPolicy policy,
+                          long blockTimeout, BacklogObserver observer) {
+        mBacklogLimits = new BacklogLimits(maxItems, maxBytes, policy, blockTimeout, observer);
+    }
+
+    private boolean fitsBacklogLocked(BacklogLimits limits, long size) {
+        if (mBacklogItems < 1) {
+            return true;
+        }
+        if (limits.mMaxItems > 0 && mBacklogItems >= limits.mMaxItems) {
+            return false;
+        }
+        return (limits.mMaxBytes <= 0 || mBacklogBytes + size <= limits.mMaxBytes);
+    }
+
+    private boolean reserveBacklog(BacklogLimits limits, W workItem) throws InterruptedException {
+        long size = Math.max(0, workItem.getPayloadSize());
+        long waitUntil = SystemClock.elapsedRealtime() + limits.mBlockTimeout;
+        while (true) {
+            synchronized (mBacklogLock) {
+                if (fitsBacklogLocked(limits, size)) {
+                    mBacklogItems += 1;
+                    mBacklogBytes += size;
+                    workItem.setBacklogSize(size);
+                    onBacklogChangedLocked(limits);
+                    return true;
+                }
+                if (VR.BacklogPolicy.FAIL_FAST == limits.mPolicy) {
+                    return false;
+                }
+                if (VR.BacklogPolicy.BLOCK == limits.mPolicy) {
+                    long remaining = waitUntil - SystemClock.elapsedRealtime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    mBacklogLock.wait(remaining);
+                    continue;
+                }
+            }
+            W dropped;
+            synchronized (mWorkItems) {
+                dropped = removeOldestQueuedLocked(workItem.getType());
+            }
+            if (null == dropped) {
+                return false;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Dropped work item: " + Util.getHashCode(dropped) + " to make room for: "
+                        + Util.getHashCode(workItem));
+            }
+            dropped.onDropped();
+            recycleWorkItem(dropped);
+        }
+    }
+
+    private void releaseBacklog(W workItem) {
+        long size = workItem.getBacklogSize();
+        if (size < 0) {
+            return;
+        }
+        workItem.setBacklogSize(-1);
+        synchronized (mBacklogLock) {
+            mBacklogItems -= 1;
+            mBacklogBytes -= size;
+            onBacklogChangedLocked(mBacklogLimits);
+            mBacklogLock.notifyAll();
+        }
+    }
+
+    private void onBacklogChangedLocked(BacklogLimits limits) {
+        if (null != limits && null != limits.mObserver) {
+            limits.mObserver.onBacklogChanged(this, mBacklogItems, mBacklogBytes);
+        }
+    }
+
+    /*
+     * Removes the queued, not yet started, item of the given type that was enqueued first.
+     */
+
+    private W removeOldestQueuedLocked(T type) {
+        drainSubmittedLocked();
+        W oldest = null;
+        for (W workItem : mWorkItems) {
+            if (type == workItem.getType() &&
+                    (null == oldest || workItem.getEnqueueSeq() < oldest.getEnqueueSeq())) {
+                oldest = workItem;
+            }
+        }
+        for (ArrayDeque<W> waiting : mOrderedWorkItems.values()) {
+            for (W workItem : waiting) {
+                if (type == workItem.getType() &&
+                        (null == oldest || workItem.getEnqueueSeq() < oldest.getEnqueueSeq())) {
+                    oldest = workItem;
+                }
+            }
+        }
+        if (null == oldest) {
+            return null;
+        }
+        Object key = oldest.getOrderingKey();
+        if (mWorkItems.remove(oldest)) {
+            scheduleNextOrderedLocked(key);
+            mNumScheduled = mWorkItems.size();
+        } else {
+            mOrderedWorkItems.get(key).remove(oldest);
+        }
+        releaseBacklog(oldest);
+        unindexLocked(oldest);
+        TypeMetrics metrics = getTypeMetrics(oldest);
+        metrics.mNumQueued.decrementAndGet();
+        metrics.mNumDropped.incrementAndGet();
+        /*
+         * Requests that were riding on the dropped one are newer, give them their own turn
+         */
+        List<W> followers = detachFollowersLocked(oldest);
+        if (null != followers) {
+            for (W follower : followers) {
+                submit(follower);
+            }
+        }
+        return oldest;
     }
 
     boolean enqueue(W workItem) {
-        if (!mThread.isAlive() || mThread.isInterrupted()) {
+        if (!isRunning()) {
             return false;
         }
-        synchronized (mWorkItems) {
-            mWorkItems.add(workItem);
-            mWorkItems.notify();
+        BacklogLimits limits = mBacklogLimits;
+        if (null != limits) {
+            try {
+                if (!reserveBacklog(limits, workItem)) {
+                    if (DEBUG) {
+                        Log.d(TAG, "Backlog full, rejected work item: " + Util.getHashCode(workItem));
+                    }
+                    return false;
+                }
+            } catch (InterruptedException ex) {
+                if (DEBUG) {
+                    Log.d(TAG, "Interrupted while waiting for backlog room " + this, ex);
+                }
+                Thread.currentThread().interrupt();
+                return false;
+            }
         }
+        long now = SystemClock.elapsedRealtime();
+        workItem.setEnqueueTime(now);
+        workItem.setScheduleTime(now + workItem.getPriority() * PRIORITY_AGING_MS);
+        submit(workItem);
         return true;
     }
 
+    private void submit(W workItem) {
+        getTypeMetrics(workItem).mNumQueued.incrementAndGet();
+        W head;
+        do {
+            head = mSubmitted.get();
+            workItem.mNextSubmitted = head;
+        } while (!mSubmitted.compareAndSet(head, workItem));
+        wakeIdleWorker();
+    }
+
     void clear() {
+        List<W> followers = new ArrayList<>();
         synchronized (mWorkItems) {
             if (DEBUG) {
                 Log.d(TAG, "Clearing work items on Async work queue: " + this);
             }
+            drainSubmittedLocked();
+            for (W workItem : mWorkItems) {
+                releaseBacklog(workItem);
+                unindexLocked(workItem);
+                addFollowers(followers, detachFollowersLocked(workItem));
+                getTypeMetrics(workItem).mNumQueued.decrementAndGet();
+            }
+            for (ArrayDeque<W> waiting : mOrderedWorkItems.values()) {
+                for (W workItem : waiting) {
+                    releaseBacklog(workItem);
+                    unindexLocked(workItem);
+                    addFollowers(followers, detachFollowersLocked(workItem));
+                    getTypeMetrics(workItem).mNumQueued.decrementAndGet();
+                }
+            }
             mWorkItems.clear();
-            if (null != mActiveWorkItem) {
-                mActiveWorkItem.cancel();
+            mNumScheduled = 0;
+            mOrderedWorkItems.clear();
+            for (W activeWorkItem : mActiveWorkItems) {
+                activeWorkItem.cancel();
+                /*
+                 * The cancelled leader has no result to share, and its followers must not
+                 * be run on their own once it ends either
+                 */
+                addFollowers(followers, detachFollowersLocked(activeWorkItem));
+                /*
+                 * Keep the keys of active items, so that anything enqueued for them later
+                 * still waits for them to complete
+                 */
+                Object key = activeWorkItem.getOrderingKey();
+                if (null != key) {
+                    mOrderedWorkItems.put(key, new ArrayDeque<W>());
+                }
             }
-            mWorkItems.notifyAll();
+        }
+        cancelFollowers(followers);
+    }
+
+    private static <X> void addFollowers(List<X> to, List<X> followers) {
+        if (null != followers) {
+            to.addAll(followers);
         }
     }
 
     void quitAsync() {
         mInterruptFlag.set(true);
-        mThread.interrupt();
+        for (Worker worker : mWorkers) {
+            worker.interrupt();
+        }
         clear();
+        if (null != mExecutor && 0 == mLiveWorkers.get()) {
+            /*
+             * No worker is running on the executor, nothing else will report the quit
+             */
+            mLiveWorkers.incrementAndGet();
+            onWorkerQuit();
+        }
     }
 
     boolean quit() {
@@ -183,7 +1120,13 @@ class AsyncWorkQueue<T extends AsyncWorkItemType, W extends AsyncWorkItem<T>> {
             Log.d(TAG, "Waiting to join Async work queue: " + this + " timeout: " + mJoinTimeout);
         }
         try {
-            mThread.join(mJoinTimeout);
+            if (null == mExecutor) {
+                for (Thread thread : mThreads) {
+                    thread.join(mJoinTimeout);
+                }
+            } else {
+                awaitWorkersQuit();
+            }
         } catch (InterruptedException ex) {
             if (DEBUG) {
                 Log.d(TAG, "Interrupted while waiting to join Async work queue: " + this, ex);
@@ -195,22 +1138,38 @@ class AsyncWorkQueue<T extends AsyncWorkItemType, W extends AsyncWorkItem<T>> {
         return (0 == mJoinTimeout);
     }
 
+    private void awaitWorkersQuit() throws InterruptedException {
+        long waitUntil = SystemClock.elapsedRealtime() + mJoinTimeout;
+        synchronized (mLiveWorkers) {
+            while (mLiveWorkers.get() > 0) {
+                if (0 == mJoinTimeout) {
+                    mLiveWorkers.wait();
+                    continue;
+                }
+                long remaining = waitUntil - SystemClock.elapsedRealtime();
+                if (remaining <= 0) {
+                    break;
+                }
+                mLiveWorkers.wait(remaining);
+            }
+        }
+    }
+
     public <X extends W> X obtainWorkItem(T type) {
         W result = null;
         if (mShouldRecycleWorkItems) {
-            synchronized (mRecycledWorkItems) {
-                List<W> recycledList = mRecycledWorkItems.get(type);
-                if (null == recycledList) {
-                    recycledList = new ArrayList<>();
-                    mRecycledWorkItems.put(type, recycledList);
-                }
-                if (recycledList.size() > 0) {
-                    result = recycledList.remove(0);
-                    if (DEBUG) {
-                        Log.d(TAG, "Got work item from recycle bin: " + Util.getHashCode(result) + " type: " + type);
-                    }
+            WorkItemPool pool = mWorkItemPools.get(type);
+            if (null == pool) {
+                WorkItemPool newPool = new WorkItemPool();
+                pool = mWorkItemPools.putIfAbsent(type, newPool);
+                if (null == pool) {
+                    pool = newPool;
                 }
             }
+            result = pool.obtain();
+            if (DEBUG && null != result) {
+                Log.d(TAG, "Got work item from recycle bin: " + Util.getHashCode(result) + " type: " + type);
+            }
         }
         if (null == result) {
             result = mFactory.newWorkItem(type);
@@ -219,25 +1178,85 @@ class AsyncWorkQueue<T extends AsyncWorkItemType, W extends AsyncWorkItem<T>> {
             }
         }
         if (null != result) {
-            result.renew(mIOBuf);
+            result.renew();
         }
         return (X)result;
     }
 
+    /**
+     * Cancels the queued and active items whose cancel key (see
+     * AsyncWorkItem.getCancelKey()) equals the given one, optionally only those of the given
+     * types.  Returns the number of items cancelled.
+     */
+
+    int cancelByCancelKey(Object cancelKey, AsyncWorkItemType... types) {
+        synchronized (mWorkItems) {
+            drainSubmittedLocked();
+            return cancelLocked(mWorkItemsByCancelKey.get(cancelKey), types);
+        }
+    }
+
+    /**
+     * Cancels the queued and active items acting on the given owner (see
+     * AsyncWorkItem.setOwners()).  Returns the number of items cancelled.
+     */
+
+    int cancelByOwner(Object owner) {
+        synchronized (mWorkItems) {
+            drainSubmittedLocked();
+            return cancelLocked(mWorkItemsByOwner.get(owner));
+        }
+    }
+
+    private int cancelLocked(Set<W> workItems, AsyncWorkItemType... types) {
+        if (null == workItems) {
+            return 0;
+        }
+        int result = 0;
+        for (W workItem : workItems) {
+            if (types.length > 0 && !isOneOf(workItem.getType(), types)) {
+                continue;
+            }
+            workItem.cancel();
+            result += 1;
+            if (DEBUG) {
+                Log.d(TAG, "Cancelled work item: " + workItem + " on " + this);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isOneOf(AsyncWorkItemType type, AsyncWorkItemType[] types) {
+        for (AsyncWorkItemType candidate : types) {
+            if (candidate == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public interface IterationObserver<T extends AsyncWorkItemType, W extends AsyncWorkItem<T>> {
         boolean onIterate(W workItem, Object ... args);
     }
 
     public void iterateWorkItems(IterationObserver observer, Object ... args) {
         synchronized (mWorkItems) {
-            if (null != mActiveWorkItem) {
-                if (!observer.onIterate(mActiveWorkItem, args)) {
+            drainSubmittedLocked();
+            for (AsyncWorkItem workItem : mActiveWorkItems) {
+                if (!observer.onIterate(workItem, args)) {
                     return;
                 }
             }
             for (AsyncWorkItem workItem : mWorkItems) {
                 if (!observer.onIterate(workItem, args)) {
-                    break;
+                    return;
+                }
+            }
+            for (ArrayDeque<W> waiting : mOrderedWorkItems.values()) {
+                for (AsyncWorkItem workItem : waiting) {
+                    if (!observer.onIterate(workItem, args)) {
+                        return;
+                    }
                 }
             }
         }
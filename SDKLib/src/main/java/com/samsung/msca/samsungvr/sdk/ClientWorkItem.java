@@ -25,17 +25,33 @@ package com.samsung.msca.samsungvr.sdk;
 import android.os.Handler;
 import android.os.ParcelFileDescriptor;
 import android.os.SystemClock;
+import android.util.Base64;
+import android.util.JsonReader;
 import android.util.Log;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Locale;
 
 abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWorkItem<ClientWorkItemType> {
@@ -93,6 +109,8 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
     static final String CONTENT_TYPE_CHARSET_SUFFIX_UTF8 = "; charset=utf-8";
     static final String TRANSFER_ENCODING_CHUNKED = "chunked";
     static final String HEADER_AUTHORIZATION = "Authorization";
+    static final String HEADER_CONTENT_MD5 = "Content-MD5";
+    static final String HEADER_ETAG = "ETag";
 
     private <T extends HttpPlugin.BaseRequest> T newEndPointRequest(String urlSuffix,
                     HttpMethod method, String[][] headers) throws Exception {
@@ -128,6 +146,68 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
         return responseCode;
     }
 
+    /*
+     * Upload verification.  The MD5 digest of a body is taken while it is sent, too late
+     * for a header of that same request.  It is checked against the ETag of the response,
+     * which for a single part upload is the hex MD5 of what the server stored, and it can
+     * go as Content-MD5 with a later send of the same bytes.
+     */
+
+    protected boolean isVerifyingUploads() {
+        return mAPIClient.shouldVerifyUploads();
+    }
+
+    protected static MessageDigest newMD5Digest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            Log.e(TAG, "Exception while getting digest", ex);
+            return null;
+        }
+    }
+
+    protected static String toContentMD5(byte[] digest) {
+        return Base64.encodeToString(digest, Base64.NO_WRAP);
+    }
+
+    /*
+     * False only if the server returned an MD5 ETag other than digest.  A missing ETag, or
+     * one that is not an MD5, such as that of a multipart object, proves nothing.
+     */
+
+    protected boolean matchesETag(HttpPlugin.ReadableRequest request, byte[] digest)
+            throws Exception {
+        if (null == digest || !(request instanceof HttpPlugin.ResponseHeadersRequest)) {
+            return true;
+        }
+        String etag = ((HttpPlugin.ResponseHeadersRequest)request).responseHeader(HEADER_ETAG);
+        if (null == etag) {
+            return true;
+        }
+        etag = etag.trim();
+        int len = etag.length();
+        if (len > 1 && '"' == etag.charAt(0) && '"' == etag.charAt(len - 1)) {
+            etag = etag.substring(1, len - 1);
+        }
+        if (etag.length() != digest.length * 2) {
+            return true;
+        }
+        for (int i = 0; i < digest.length; i += 1) {
+            int hi = Character.digit(etag.charAt(2 * i), 16);
+            int lo = Character.digit(etag.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return true;
+            }
+            if ((byte)((hi << 4) | lo) != digest[i]) {
+                if (DEBUG) {
+                    Log.d(TAG, "ETag mismatch " + etag + " request " + Util.getHashCode(request));
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
     protected String toCookieString(String[][] cookies) {
         String cookieStr = "";
         if (null != cookies) {
@@ -166,39 +246,174 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
         bis.close();
     }
 
-    private String readHttpStream(InputStream in, String debugMsg) {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        byte[] buf = mIOBuf;
+    /*
+     * Decodes UTF-8 straight out of the caller's byte buffer, so that a response is
+     * never held as raw bytes and as a String at the same time. Bytes of a sequence
+     * split across reads are compacted to the front of the buffer.
+     */
 
-        BufferedInputStream bis;
-        try {
-            bis = new BufferedInputStream(in);
-            while (!isCancelled()) {
-                int len = bis.read(buf, 0, buf.length);
-                if (len < 1) {
+    static class HttpBodyReader extends Reader {
+
+        private final InputStream mInput;
+        private final ByteBuffer mBytes;
+        private final CharsetDecoder mDecoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private boolean mEndOfInput, mDone;
+
+        /*
+         * A surrogate pair does not fit a read of one char, the second half of it waits here
+         */
+
+        private final char[] mPair = new char[2];
+        private boolean mHasPendingChar;
+
+        HttpBodyReader(InputStream input, byte[] buf) {
+            mInput = input;
+            mBytes = ByteBuffer.wrap(buf);
+            mBytes.flip();
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len < 1) {
+                return 0;
+            }
+            if (mHasPendingChar) {
+                mHasPendingChar = false;
+                cbuf[off] = mPair[1];
+                return 1;
+            }
+            if (mDone) {
+                return -1;
+            }
+            CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            while (out.position() == off) {
+                if (isCancelled()) {
+                    throw new InterruptedIOException();
+                }
+                CoderResult result = mDecoder.decode(mBytes, out, mEndOfInput);
+                if (result.isOverflow()) {
+                    if (out.position() == off) {
+                        CharBuffer pair = CharBuffer.wrap(mPair);
+                        mDecoder.decode(mBytes, pair, mEndOfInput);
+                        cbuf[off] = mPair[0];
+                        mHasPendingChar = (2 == pair.position());
+                        return 1;
+                    }
+                    break;
+                }
+                if (mEndOfInput) {
+                    mDecoder.flush(out);
+                    mDone = true;
                     break;
                 }
-                bos.write(buf, 0, len);
+                mBytes.compact();
+                int count = mInput.read(mBytes.array(), mBytes.position(), mBytes.remaining());
+                if (count < 0) {
+                    mEndOfInput = true;
+                } else {
+                    mBytes.position(mBytes.position() + count);
+                }
+                mBytes.flip();
+            }
+            int count = out.position() - off;
+            return (count < 1 && mDone) ? -1 : count;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        protected boolean isCancelled() {
+            return false;
+        }
+    }
+
+    /*
+     * Builds the same values org.json's tokenizer would, so callers see no difference
+     * between this and new JSONObject(String)
+     */
+
+    private static Object readJsonValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    object.put(name, readJsonValue(reader));
+                }
+                reader.endObject();
+                return object;
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readJsonValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return toJsonNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+        }
+        throw new JSONException("Unexpected token " + reader.peek());
+    }
+
+    static Number toJsonNumber(String number) {
+        try {
+            long value = Long.parseLong(number);
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                return (int)value;
+            }
+            return value;
+        } catch (NumberFormatException ex) {
+            return Double.parseDouble(number);
+        }
+    }
+
+    private JSONObject readHttpJson(InputStream in, byte[] buf, String debugMsg) throws JSONException {
+        JsonReader reader = new JsonReader(new HttpBodyReader(in, buf) {
+            @Override
+            protected boolean isCancelled() {
+                return ClientWorkItem.this.isCancelled();
             }
+        });
+        reader.setLenient(true);
+        Object result;
+        try {
+            result = readJsonValue(reader);
+        } catch (MalformedJsonException | EOFException ex) {
+            /*
+             * A truncated or garbled body, not a read failure
+             */
+            throw new JSONException(ex.getMessage());
         } catch (IOException ex) {
             if (DEBUG) {
                 Log.d(TAG, "Error reading input stream", ex);
             }
             return null;
-        } finally {
-            closeOutputStream(bos);
         }
         if (isCancelled()) {
             return null;
         }
-        String result = bos.toString();
         if (DEBUG) {
-            Log.d(TAG, "readHttpStream debugMsg: " + debugMsg + " result: " + result);
+            Log.d(TAG, "readHttpJson debugMsg: " + debugMsg + " result: " + result);
         }
-        return result;
+        if (!(result instanceof JSONObject)) {
+            throw new JSONException("Value " + result + " cannot be converted to JSONObject");
+        }
+        return (JSONObject)result;
     }
 
-    private boolean closeOutputStream(OutputStream stream) {
+    private boolean closeInputStream(InputStream stream) {
         if (null == stream) {
             return false;
         }
@@ -207,33 +422,58 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
             return true;
         } catch (IOException ex) {
             if (DEBUG) {
-                Log.d(TAG, "Error closing output stream", ex);
+                Log.d(TAG, "Error closing input stream", ex);
             }
         }
         return false;
     }
 
+    /*
+     * Returns null if the body could not be read or the item was cancelled, and
+     * throws JSONException if it was read but is not a JSON object.
+     */
 
-    private boolean closeInputStream(InputStream stream) {
-        if (null == stream) {
-            return false;
-        }
+    protected JSONObject readHttpJson(HttpPlugin.ReadableRequest request, final String debugMsg)
+        throws JSONException {
+        return readHttpJson(request, mIOBuf, debugMsg);
+    }
+
+    /*
+     * Only a success carries a body worth parsing.  A non JSON body of any other response,
+     * such as an HTML error page from a proxy, fails the item like any other error response
+     * would.  Returns null once the item is failed.
+     */
+
+    protected JSONObject readHttpJsonIfSuccess(HttpPlugin.ReadableRequest request, int rsp)
+        throws JSONException {
+        JSONObject jsonObject;
         try {
-            stream.close();
-            return true;
-        } catch (IOException ex) {
-            if (DEBUG) {
-                Log.d(TAG, "Error closing input stream", ex);
+            jsonObject = readHttpJson(request, "code: " + rsp);
+        } catch (JSONException ex) {
+            if (isHTTPSuccess(rsp)) {
+                throw ex;
             }
+            dispatchFailure(VR.Result.STATUS_SERVER_RESPONSE_NO_STATUS_CODE);
+            return null;
         }
-        return false;
+        if (null == jsonObject) {
+            dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
+        }
+        return jsonObject;
     }
 
-    protected String readHttpStream(HttpPlugin.ReadableRequest request, final String debugMsg) {
+    /*
+     * For reads made off the worker thread, with a buffer other than mIOBuf
+     */
+
+    protected JSONObject readHttpJson(HttpPlugin.ReadableRequest request, byte[] buf,
+                                      final String debugMsg) throws JSONException {
         InputStream input = null;
         try {
             input = request.input();
-            return readHttpStream(input, debugMsg);
+            return readHttpJson(input, buf, debugMsg);
+        } catch (JSONException ex) {
+            throw ex;
         } catch (Exception ex) {
             if (DEBUG) {
                 Log.d(TAG, "Error reading input stream, debugMsg: " + debugMsg, ex);
@@ -380,13 +620,200 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
         }
     }
 
+    /*
+     * A range of a file that can be read again from its start with rewind(), for example to
+     * send a chunk a second time, without touching any other reader of the same file.
+     */
+
+    protected abstract static class RangeStream extends InputStream {
+
+        private final byte[] mSingle = new byte[1];
+
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(Integer.MAX_VALUE, availableAsLong());
+        }
+
+        public abstract long availableAsLong();
+
+        public abstract void rewind();
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            throw new IOException();
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (1 != read(mSingle, 0, 1)) {
+                return -1;
+            }
+            return mSingle[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer) throws IOException {
+            return read(buffer, 0, buffer.length);
+        }
+
+        @Override
+        public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+            if (!canContinue()) {
+                return -1;
+            }
+            int canRead = (int)Math.min(byteCount, availableAsLong());
+            if (canRead < 1) {
+                return -1;
+            }
+            int wasRead = readRange(buffer, byteOffset, canRead);
+            if (wasRead > 0) {
+                onRead(buffer, byteOffset, wasRead);
+            }
+            return wasRead;
+        }
+
+        protected void onRead(byte[] buffer, int byteOffset, int len) throws IOException {
+        }
+
+        /*
+         * Reads between 1 and byteCount bytes, byteCount is never more than what is
+         * available.  Returns -1 on end of file.
+         */
+
+        protected abstract int readRange(byte[] buffer, int byteOffset, int byteCount)
+                throws IOException;
+
+        protected boolean canContinue() {
+            return true;
+        }
+    }
+
+    /*
+     * Reads a range of a file by positional reads, which leave the channel's position alone,
+     * so that several of these can read different ranges of one file at the same time.
+     */
+
+    protected static class FileRangeStream extends RangeStream {
+
+        private final FileChannel mChannel;
+        private final long mStart, mEnd;
+        private long mPos;
+        private ByteBuffer mWrapped;
+
+        FileRangeStream(FileChannel channel, long start, long length) {
+            mChannel = channel;
+            mStart = start;
+            mPos = start;
+            mEnd = start + length;
+        }
+
+        @Override
+        public long availableAsLong() {
+            return Math.max(0, mEnd - mPos);
+        }
+
+        @Override
+        public void rewind() {
+            mPos = mStart;
+        }
+
+        @Override
+        protected int readRange(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+            ByteBuffer wrapped = mWrapped;
+            if (null == wrapped || buffer != wrapped.array()) {
+                wrapped = ByteBuffer.wrap(buffer);
+                mWrapped = wrapped;
+            }
+            wrapped.limit(byteOffset + byteCount);
+            wrapped.position(byteOffset);
+            int wasRead = mChannel.read(wrapped, mPos);
+            if (wasRead < 1) {
+                return -1;
+            }
+            mPos += wasRead;
+            return wasRead;
+        }
+    }
+
+    /*
+     * Reads a range of a file through a read only memory mapping of that range, so reads
+     * are copies out of the page cache with no system call, and the kernel reads ahead.
+     * The mapping lives until the stream is garbage collected.
+     */
+
+    protected static class MappedRangeStream extends RangeStream {
+
+        private final ByteBuffer mMapped;
+
+        MappedRangeStream(FileChannel channel, long start, long length) throws IOException {
+            mMapped = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+
+        @Override
+        public long availableAsLong() {
+            return mMapped.remaining();
+        }
+
+        @Override
+        public void rewind() {
+            mMapped.rewind();
+        }
+
+        @Override
+        protected int readRange(byte[] buffer, int byteOffset, int byteCount) {
+            mMapped.get(buffer, byteOffset, byteCount);
+            return byteCount;
+        }
+    }
+
     protected void writeHttpStream(final HttpPlugin.WritableRequest request, InputStream input)
         throws Exception {
+        writeHttpStream(request, input, mIOBuf);
+    }
+
+    /*
+     * Sends a range of a file, between an optional prefix and suffix, if the plugin supports
+     * HttpPlugin.ChannelWritableRequest.  Returns false if it does not, in which case the
+     * caller sends the same through writeHttpStream.
+     */
+
+    protected boolean writeHttpChannel(final HttpPlugin.WritableRequest request, ByteBuffer prefix,
+                                       FileChannel channel, long position, long length,
+                                       ByteBuffer suffix, byte[] buf) throws Exception {
+        if (!(request instanceof HttpPlugin.ChannelWritableRequest)) {
+            return false;
+        }
+        if (isUploadThrottled() || isVerifyingUploads()) {
+            /*
+             * The plugin moves the bytes on its own, they would go by the rate limit and the
+             * digest
+             */
+            return false;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Writing channel to output stream " + Util.getHashCode(request) +
+                    " position: " + position + " len: " + length);
+        }
+        ((HttpPlugin.ChannelWritableRequest)request).output(prefix, channel, position, length,
+                suffix, buf);
+        if (DEBUG) {
+            Log.d(TAG, "Done writing channel " + Util.getHashCode(request));
+        }
+        return true;
+    }
+
+    protected void writeHttpStream(final HttpPlugin.WritableRequest request, InputStream input,
+                                   byte[] buf) throws Exception {
 
         if (DEBUG) {
             Log.d(TAG, "Writing input stream to output stream " + Util.getHashCode(request) + " len: " + input.available());
         }
-        request.output(input, mIOBuf);
+        request.output(input, buf);
         if (DEBUG) {
             Log.d(TAG, "Done writing to stream " + Util.getHashCode(request));
         }
@@ -396,10 +823,48 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
     protected void recycle() {
         super.recycle();
         mCallbackHolder.clearNoLock();
+        mResultNotifier = null;
+        mResultShareable = false;
     }
 
     abstract void onRun() throws Exception;
 
+    private static final long THROTTLE_POLL_MS = 100;
+
+    protected boolean isUploadThrottled() {
+        UploadRateLimiter typeLimiter = mAPIClient.getUploadRateLimiter(getType().getName());
+        return mAPIClient.getUploadRateLimiter(null).isLimited() ||
+                (null != typeLimiter && typeLimiter.isLimited());
+    }
+
+    /*
+     * Called by upload streams with the number of bytes they just provided.  Blocks while
+     * the rate limit of this item's type, and then that of all uploads, is exceeded.  Limits
+     * changed meanwhile apply within THROTTLE_POLL_MS.
+     */
+
+    protected void throttleUpload(int len) throws IOException {
+        throttleUpload(mAPIClient.getUploadRateLimiter(getType().getName()), len);
+        throttleUpload(mAPIClient.getUploadRateLimiter(null), len);
+    }
+
+    private void throttleUpload(UploadRateLimiter limiter, int len) throws IOException {
+        if (null == limiter) {
+            return;
+        }
+        while (!isCancelled()) {
+            long wait = limiter.tryAcquire(len);
+            if (wait < 1) {
+                return;
+            }
+            try {
+                Thread.sleep(Math.min(wait, THROTTLE_POLL_MS));
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
     protected final ResultCallbackHolder mCallbackHolder = new ResultCallbackHolder();
 
     protected void set(T callback, Handler handler, Object closure) {
@@ -410,6 +875,73 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
         return mCallbackHolder.getClosureNoLock();
     }
 
+    @Override
+    protected Object getCancelKey() {
+        return getClosure();
+    }
+
+    /*
+     * Coalesce key made of this item's type and the given request parameters
+     */
+
+    protected Object toCoalesceKey(Object... params) {
+        Object[] key = new Object[params.length + 1];
+        key[0] = getType();
+        System.arraycopy(params, 0, key, 1, params.length);
+        return Arrays.asList(key);
+    }
+
+    private Util.CallbackNotifier mResultNotifier;
+    private boolean mResultShareable;
+
+    @Override
+    protected boolean shareResult(AsyncWorkItem<ClientWorkItemType> follower) {
+        if (!mResultShareable || null == mResultNotifier) {
+            return false;
+        }
+        ClientWorkItem<?> other = (ClientWorkItem<?>)follower;
+        other.mDispatchedCount = 0;
+        if (other.isCancelled()) {
+            other.dispatchCancelled();
+        } else {
+            other.dispatchCounted(mResultNotifier.copyFor(other.mCallbackHolder));
+        }
+        return true;
+    }
+
+    @Override
+    protected int getDefaultPriority() {
+        return getType().getPriority().ordinal();
+    }
+
+    /*
+     * Per request override of the type's priority. A null priority keeps the type's default.
+     */
+
+    void overridePriority(VR.Priority priority) {
+        if (null != priority) {
+            setPriority(priority.ordinal());
+        }
+    }
+
+    @Override
+    protected void onExpired() {
+        mDispatchedCount = 0;
+        dispatchFailure(VR.Result.STATUS_EXPIRED);
+    }
+
+    @Override
+    protected void onDropped() {
+        mDispatchedCount = 0;
+        dispatchFailure(VR.Result.STATUS_BACKLOG_FULL);
+    }
+
+    @Override
+    protected void onCleared() {
+        mDispatchedCount = 0;
+        dispatchCancelled();
+    }
+
     private Handler getHandler() {
         return mCallbackHolder.getHandlerNoLock();
     }
@@ -422,6 +954,8 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
     @Override
     public void run() {
         mDispatchedCount = 0;
+        mResultShareable = false;
+        mProgressThrottle.reset();
 
         if (DEBUG) {
             Log.d(TAG, "Running work item: " + Util.getHashCode(this) + " type: " + getType());
@@ -439,15 +973,25 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
                     Log.d(TAG, "Exception occured on work item: " + Util.getHashCode(this)
                             + " type: " + getType(), ex);
                 }
-                dispatchException(ex);
+                if (!isCancelRequested() && isExpired() && isCancelled()) {
+                    /*
+                     * Aborted because the deadline passed, most likely the exception is
+                     * from the request being torn down
+                     */
+                    dispatchCancelled();
+                } else {
+                    dispatchException(ex);
+                }
             }
         }
         if (1 != mDispatchedCount) {
             throw new RuntimeException("Invalid number of dispatches made, count: " + mDispatchedCount);
         }
+        mResultShareable = !isCancelled();
     }
 
     protected void dispatchCounted(Util.CallbackNotifier notifier) {
+        mResultNotifier = notifier;
         dispatchUncounted(notifier);
         mDispatchedCount += 1;
         onDispatchCounted(mDispatchedCount);
@@ -460,7 +1004,82 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
         notifier.post();
     }
 
+    /*
+     * Upload streams report progress for every buffer they hand out, which with an 8KB
+     * buffer is tens of thousands of posts to the callback handler per upload.  A report
+     * is only passed on once the minimum interval has gone by and the upload moved
+     * PROGRESS_MIN_STEP_PERCENT since the last one.  The first report, the final one and
+     * the first after a restart from a lower count always go out.
+     */
+
+    static final long PROGRESS_MIN_INTERVAL_MS = 250;
+    static final double PROGRESS_MIN_STEP_PERCENT = 0.1;
+
+    static class ProgressThrottle {
+
+        private final long mMinInterval;
+        private volatile long mLastComplete = -1, mLastTime;
+
+        ProgressThrottle(long minInterval) {
+            mMinInterval = minInterval;
+        }
+
+        synchronized void reset() {
+            mLastComplete = -1;
+        }
+
+        /*
+         * True if the report of complete out of max at time now is to go out, in which case
+         * it becomes the last one.  A forced report always goes out.
+         */
+
+        boolean shouldReport(long complete, long max, long now, boolean force) {
+            boolean isFinal = (max > 0) && (complete >= max);
+            if (!force && !isFinal && now - mLastTime < mMinInterval &&
+                    mLastComplete >= 0 && complete >= mLastComplete) {
+                /*
+                 * Most reports end here, without taking the lock uploaders would contend on
+                 */
+                return false;
+            }
+            synchronized (this) {
+                if (!force && mLastComplete >= 0 && complete >= mLastComplete) {
+                    if (isFinal) {
+                        if (mLastComplete >= max) {
+                            return false;
+                        }
+                    } else {
+                        if (now - mLastTime < mMinInterval) {
+                            return false;
+                        }
+                        double step = 100.0 * (complete - mLastComplete) / max;
+                        if (max > 0 && step < PROGRESS_MIN_STEP_PERCENT) {
+                            return false;
+                        }
+                    }
+                }
+                mLastComplete = complete;
+                mLastTime = now;
+                return true;
+            }
+        }
+    }
+
+    private final ProgressThrottle mProgressThrottle =
+            new ProgressThrottle(PROGRESS_MIN_INTERVAL_MS);
+
+    protected void dispatchProgress(long complete, long max) {
+        if (!mProgressThrottle.shouldReport(complete, max, SystemClock.elapsedRealtime(), false)) {
+            return;
+        }
+        dispatchUncounted(new ProgressCallbackNotifier(complete, max).setNoLock(mCallbackHolder));
+    }
+
     protected void dispatchCancelled() {
+        if (!isCancelRequested() && isExpired()) {
+            dispatchFailure(VR.Result.STATUS_EXPIRED);
+            return;
+        }
         dispatchCounted(new Util.CancelledCallbackNotifier().setNoLock(mCallbackHolder));
     }
 
@@ -506,6 +1125,59 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
         }
     }
 
+    /*
+     * Bytes go to TransferProgressCallback only.  ProgressCallback keeps counting in the
+     * request's own units, chunks for a video upload, and only hears of a change in them.
+     */
+
+    protected static class TransferProgressCallbackNotifier extends ProgressCallbackNotifier {
+
+        private final boolean mProgressChanged;
+        private final long mSent, mTotal, mBytesPerSecond, mEta;
+
+        public TransferProgressCallbackNotifier(long complete, long max, boolean progressChanged,
+                                                long sent, long total, long bytesPerSecond,
+                                                long eta) {
+            super(complete, max);
+            mProgressChanged = progressChanged;
+            mSent = sent;
+            mTotal = total;
+            mBytesPerSecond = bytesPerSecond;
+            mEta = eta;
+        }
+
+        @Override
+        void notify(Object callback, Object closure) {
+            if (mProgressChanged) {
+                super.notify(callback, closure);
+            }
+            if (callback instanceof VR.Result.TransferProgressCallback) {
+                ((VR.Result.TransferProgressCallback)callback).onTransferProgress(closure,
+                        mSent, mTotal, mBytesPerSecond, mEta);
+            }
+        }
+    }
+
+    protected static class RetryCallbackNotifier extends Util.CallbackNotifier {
+
+        private final int mPart, mAttempt, mStatus;
+        private final long mDelay;
+
+        public RetryCallbackNotifier(int part, int attempt, long delay, int status) {
+            mPart = part;
+            mAttempt = attempt;
+            mDelay = delay;
+            mStatus = status;
+        }
+
+        @Override
+        void notify(Object callback, Object closure) {
+            if (callback instanceof VR.Result.RetryCallback) {
+                ((VR.Result.RetryCallback)callback).onRetry(closure, mPart, mAttempt, mDelay, mStatus);
+            }
+        }
+    }
+
     protected static String headersToString(String[][] headers) {
         if (null == headers) {
             return null;
@@ -611,7 +1283,7 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
         }
 
 
-        protected void onRead(int len) {
+        protected void onRead(int len) throws IOException {
         }
     }
 
@@ -637,17 +1309,26 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
         String formDataBeginStr = HYPHENS + boundary + ENDL + headersToString(formDataHeaders) + ENDL;
         String formDataEndStr = ENDL + HYPHENS + boundary + HYPHENS + ENDL;
 
-        byte[] temp;
-        long total = source.getStatSize();
+        long fileLength = source.getStatSize();
+        long total = fileLength;
+
+        byte[] begin = formDataBeginStr.getBytes(StandardCharsets.US_ASCII);
+        total += begin.length;
 
-        temp = formDataBeginStr.getBytes(StandardCharsets.US_ASCII);
-        total += temp.length;
-        InputStream beginStream = new ByteArrayInputStream(temp);
+        byte[] end = formDataEndStr.getBytes(StandardCharsets.US_ASCII);
+        total += end.length;
 
-        temp = formDataEndStr.getBytes(StandardCharsets.US_ASCII);
-        total += temp.length;
-        InputStream endStream = new ByteArrayInputStream(temp);
-        InputStream fileStream = new FileInputStream(source.getFileDescriptor());
+        headers[indexContentType][1] = "multipart/form-data; boundary=" + boundary;
+        headers[indexContentLength][1] = String.valueOf(total);
+
+        FileInputStream fileStream = new FileInputStream(source.getFileDescriptor());
+        if (writeHttpChannel(request, ByteBuffer.wrap(begin), fileStream.getChannel(), 0,
+                fileLength, ByteBuffer.wrap(end), mIOBuf)) {
+            dispatchProgress(total, total);
+            return;
+        }
+        InputStream beginStream = new ByteArrayInputStream(begin);
+        InputStream endStream = new ByteArrayInputStream(end);
 
         /* List<InputStream> streams = new ArrayList<>();
         streams.add(beginStream);
@@ -662,14 +1343,13 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
 
             private long mTotalRead = 0;
             @Override
-            protected void onRead(int len) {
+            protected void onRead(int len) throws IOException {
                 super.onRead(len);
+                throttleUpload(len);
                 mTotalRead += len;
-                dispatchUncounted(new ProgressCallbackNotifier(mTotalRead, max).setNoLock(mCallbackHolder));
+                dispatchProgress(mTotalRead, max);
             }
         };
-        headers[indexContentType][1] = "multipart/form-data; boundary=" + boundary;
-        headers[indexContentLength][1] = String.valueOf(total);
         request.output(streams, mIOBuf);
         streams.close();
     }
@@ -689,10 +1369,10 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
             int mMark, mLen;
 
             int set(byte[] array, int offset, int len) {
-                mLen = len;
                 mArray = array;
-                mMark = 0;
-                return mLen;
+                mMark = offset;
+                mLen = offset + len;
+                return len;
             }
 
             int available() {
@@ -758,12 +1438,14 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
             return 0;
         }
 
+        private final byte[] mSingle = new byte[1];
+
         @Override
         public int read() throws IOException {
-            if (1 != read(mIOBuf, 0, 1)) {
+            if (1 != read(mSingle, 0, 1)) {
                 return -1;
             }
-            return mIOBuf[0];
+            return mSingle[0] & 0xff;
         }
 
         @Override
@@ -797,6 +1479,8 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
             }
             if (totalRead < 1) {
                 totalRead = -1;
+            } else {
+                throttle(totalRead);
             }
             onProgress(mProvidedSoFar, totalRead > 0);
             return totalRead;
@@ -804,27 +1488,50 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
 
         private long mProvidedSoFar = 0;
 
-        private boolean ensureAvailable() {
+        /*
+         * Chunked transfer coding framing: each buffer read from the inner stream goes out
+         * as <size in hex> CRLF <data> CRLF, and the body ends with a zero size chunk.  The
+         * size line is formatted into a buffer of this stream, right aligned against its
+         * CRLF, so that framing allocates nothing.
+         */
+
+        private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] CRLF = ENDL.getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] LAST_CHUNK = ("0" + ENDL + ENDL).getBytes(StandardCharsets.US_ASCII);
+        private static final int CHUNK_SIZE_DIGITS = 8;
+
+        private final byte[] mChunkHeader = new byte[CHUNK_SIZE_DIGITS + 2];
+        private boolean mLastChunkSent = false;
+
+        private int setChunkHeader(ByteArrayHolder holder, int size) {
+            int pos = CHUNK_SIZE_DIGITS;
+            do {
+                pos -= 1;
+                mChunkHeader[pos] = HEX_DIGITS[size & 0xf];
+                size >>>= 4;
+            } while (0 != size);
+            return holder.set(mChunkHeader, pos, mChunkHeader.length - pos);
+        }
+
+        private boolean ensureAvailable() throws IOException {
             long available = mBufs[0].available() + mBufs[1].available() + mBufs[2].available();
             if (available > 0) {
                 return true;
             }
             mBufs[0].clear(); mBufs[1].clear(); mBufs[2].clear();
 
-            int read;
-            try {
-                read = mInner.read(mIOBuf);
-            } catch (IOException ex) {
-                read = 0;
-            }
+            int read = mInner.read(mIOBuf);
             if (read < 1) {
+                if (mIsChunked && !mLastChunkSent) {
+                    mLastChunkSent = true;
+                    return mBufs[0].set(LAST_CHUNK) > 0;
+                }
                 return false;
             }
             available = 0;
             if (mIsChunked) {
-                byte[] header = (String.valueOf(read) + ENDL).getBytes(StandardCharsets.UTF_8);
-                available += mBufs[0].set(header);
-                available += mBufs[2].set(ENDL.getBytes(StandardCharsets.UTF_8));
+                available += setChunkHeader(mBufs[0], read);
+                available += mBufs[2].set(CRLF);
             }
             available += mBufs[1].set(mIOBuf, 0, read);
             return available > 0;
@@ -849,6 +1556,10 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
 
         }
 
+        protected void throttle(int len) throws IOException {
+
+        }
+
         protected boolean canContinue() {
             return true;
         }
@@ -861,6 +1572,7 @@ abstract class ClientWorkItem<T extends VR.Result.BaseCallback> extends AsyncWor
             mInner = inner;
             mIsChunked = isChunked;
             mIOBuf = null == ioBuf ? new byte[8192] : ioBuf;
+            System.arraycopy(CRLF, 0, mChunkHeader, CHUNK_SIZE_DIGITS, CRLF.length);
         }
 
     }
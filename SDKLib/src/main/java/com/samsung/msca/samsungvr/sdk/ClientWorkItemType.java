@@ -26,4 +26,10 @@ interface ClientWorkItemType extends AsyncWorkItemType {
 
     <T extends ClientWorkItem> T newInstance(APIClientImpl apiClient);
 
+    /**
+     * The scheduling class items of this type get, unless overridden for a single request.
+     */
+
+    VR.Priority getPriority();
+
 }
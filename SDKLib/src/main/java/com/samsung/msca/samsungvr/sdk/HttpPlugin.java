@@ -23,6 +23,8 @@
 package com.samsung.msca.samsungvr.sdk;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Applications that use the SDK MUST implement a HTTP Plugin based on this spec and pass in a valid
@@ -103,6 +105,51 @@ public final class HttpPlugin {
         void output(final InputStream input, byte[] buf)  throws Exception;
     }
 
+    /**
+     * Optional extension of WritableRequest.  If a writable request also implements this
+     * interface, the SDK sends file contents through it instead of through
+     * output(InputStream, byte[]), so that the plugin can pass them to the HTTP socket
+     * without copying them through a Java buffer, for example with FileChannel.transferTo or
+     * direct buffers.  Plugins that do not implement it keep working through the stream
+     * path.
+     */
+
+    public interface ChannelWritableRequest extends WritableRequest {
+
+        /**
+         * Send prefix, then length bytes of channel starting at position, then suffix, as
+         * the body of the request.  Called at most once per request, instead of
+         * output(InputStream, byte[]).
+         *
+         * @param prefix Bytes from its position to its limit are sent first. Can be null.
+         * @param channel The file to send from. Must only be read with positional reads or
+         *                transferTo(position, ...), without changing the channel's position;
+         *                other requests may be sending other ranges of the same file at the
+         *                same time.  Can be null if length is 0.
+         * @param suffix Bytes from its position to its limit are sent last. Can be null.
+         * @param buf The same helper buffer as in output(InputStream, byte[])
+         */
+
+        void output(ByteBuffer prefix, FileChannel channel, long position, long length,
+                    ByteBuffer suffix, byte[] buf) throws Exception;
+    }
+
+    /**
+     * Optional extension of ReadableRequest.  If a request also implements this interface,
+     * the SDK checks the ETag the server returns for an upload against the MD5 digest of
+     * what it sent, when VR.Options.setVerifyUploads is on.
+     */
+
+    public interface ResponseHeadersRequest extends ReadableRequest {
+
+        /**
+         * Value of the named response header, null if the response has none.  Called only
+         * after responseCode().
+         */
+
+        String responseHeader(String name) throws Exception;
+    }
+
     /**
      * A request that allows bi-drectional ordered communication.  Writes happen before reads.
      */
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2016 Samsung Electronics America
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.samsung.msca.samsungvr.sdk;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * On disk record of video uploads in progress, one file per video, so that an upload
+ * interrupted by the death of the process can be resumed later.  A file holds a header with
+ * what it takes to resume, then one 4 byte record for every chunk that completed along with
+ * all chunks before it, appended and synced as it completes.  A torn last record is ignored.
+ * The header is written to a temporary file that is then renamed, so a file either has a
+ * whole header or does not exist.
+ *
+ * Strings are stored as a 4 byte length, -1 for null, followed by that many bytes of UTF-8,
+ * so that there is no limit on their length as there is with DataOutputStream.writeUTF.
+ * Signed upload URLs are not stored, they expire long before a process that died is
+ * likely to be started again.  Those of all chunks but the first are resolved again on
+ * resume.
+ */
+
+class UploadJournal {
+
+    private static final String TAG = Util.getLogTag(UploadJournal.class);
+    private static final boolean DEBUG = Util.DEBUG;
+
+    private static final int MAGIC = 0x56524a32;
+    private static final int MAX_STRING_BYTES = 1024 * 1024;
+    private static final String SUFFIX = ".upload";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    static final class Entry {
+
+        final String mUserId, mVideoId, mUploadId, mTitle, mDescription;
+        final UserVideo.Permission mPermission;
+        final long mChunkSize;
+        final int mNumChunks;
+        final int mLastSuccessfulChunk;
+
+        Entry(String userId, String videoId, String uploadId, String title,
+              String description, UserVideo.Permission permission, long chunkSize,
+              int numChunks, int lastSuccessfulChunk) {
+            mUserId = userId;
+            mVideoId = videoId;
+            mUploadId = uploadId;
+            mTitle = title;
+            mDescription = description;
+            mPermission = permission;
+            mChunkSize = chunkSize;
+            mNumChunks = numChunks;
+            mLastSuccessfulChunk = lastSuccessfulChunk;
+        }
+    }
+
+    private final File mDir;
+
+    UploadJournal(File dir) {
+        mDir = dir;
+    }
+
+    private File getFile(String videoId) {
+        StringBuilder name = new StringBuilder(videoId.length() + SUFFIX.length());
+        for (int i = 0; i < videoId.length(); i += 1) {
+            char c = videoId.charAt(i);
+            boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+                    (c >= '0' && c <= '9') || '-' == c || '_' == c;
+            name.append(safe ? c : '_');
+        }
+        return new File(mDir, name.append(SUFFIX).toString());
+    }
+
+    synchronized boolean create(Entry entry) {
+        File file = getFile(entry.mVideoId);
+        File temp = new File(mDir, file.getName() + TEMP_SUFFIX);
+        FileOutputStream fos = null;
+        try {
+            if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                return false;
+            }
+            fos = new FileOutputStream(temp);
+            DataOutputStream dos = new DataOutputStream(fos);
+            dos.writeInt(MAGIC);
+            writeString(dos, entry.mUserId);
+            writeString(dos, entry.mVideoId);
+            writeString(dos, entry.mUploadId);
+            writeString(dos, entry.mTitle);
+            writeString(dos, entry.mDescription);
+            writeString(dos, (null != entry.mPermission) ? entry.mPermission.name() : null);
+            dos.writeLong(entry.mChunkSize);
+            dos.writeInt(entry.mNumChunks);
+            dos.writeInt(entry.mLastSuccessfulChunk);
+            dos.flush();
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+            return temp.renameTo(file);
+        } catch (IOException ex) {
+            /*
+             * Not fatal to the upload, but it will not survive the death of the process
+             */
+            Log.w(TAG, "Failed to create journal for video: " + entry.mVideoId, ex);
+            temp.delete();
+            return false;
+        } finally {
+            close(fos);
+        }
+    }
+
+    /*
+     * Records that the given chunk and all before it are uploaded
+     */
+
+    synchronized boolean append(String videoId, int lastSuccessfulChunk) {
+        File file = getFile(videoId);
+        if (!file.isFile()) {
+            return false;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(file, true);
+            DataOutputStream dos = new DataOutputStream(fos);
+            dos.writeInt(lastSuccessfulChunk);
+            dos.flush();
+            fos.getFD().sync();
+            return true;
+        } catch (IOException ex) {
+            if (DEBUG) {
+                Log.d(TAG, "Failed to append to journal for video: " + videoId, ex);
+            }
+            return false;
+        } finally {
+            close(fos);
+        }
+    }
+
+    synchronized boolean remove(String videoId) {
+        return getFile(videoId).delete();
+    }
+
+    /*
+     * Uploads of the given user that were not completed or cancelled
+     */
+
+    synchronized List<Entry> load(String userId) {
+        List<Entry> result = new ArrayList<>();
+        File[] files = mDir.listFiles();
+        if (null == files) {
+            return result;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            Entry entry = read(file);
+            if (null == entry) {
+                if (DEBUG) {
+                    Log.d(TAG, "Deleting unreadable journal: " + file);
+                }
+                file.delete();
+                continue;
+            }
+            if (entry.mUserId.equals(userId)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private static Entry read(File file) {
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(file);
+            DataInputStream dis = new DataInputStream(fis);
+            if (MAGIC != dis.readInt()) {
+                return null;
+            }
+            String userId = readString(dis);
+            String videoId = readString(dis);
+            String uploadId = readString(dis);
+            String title = readString(dis);
+            String description = readString(dis);
+            String permission = readString(dis);
+            if (null == userId || null == videoId || null == uploadId) {
+                return null;
+            }
+            long chunkSize = dis.readLong();
+            int numChunks = dis.readInt();
+            int lastSuccessfulChunk = dis.readInt();
+            while (true) {
+                try {
+                    lastSuccessfulChunk = Math.max(lastSuccessfulChunk, dis.readInt());
+                } catch (EOFException ex) {
+                    break;
+                }
+            }
+            return new Entry(userId, videoId, uploadId, title, description,
+                    toPermission(permission), chunkSize, numChunks,
+                    Math.min(lastSuccessfulChunk, numChunks - 1));
+        } catch (IOException ex) {
+            if (DEBUG) {
+                Log.d(TAG, "Failed to read journal: " + file, ex);
+            }
+            return null;
+        } finally {
+            close(fis);
+        }
+    }
+
+    private static UserVideo.Permission toPermission(String name) {
+        if (null == name) {
+            return null;
+        }
+        try {
+            return UserVideo.Permission.valueOf(name);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream dos, String value) throws IOException {
+        if (null == value) {
+            dos.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IOException("String too long for journal, bytes: " + bytes.length);
+        }
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        int len = dis.readInt();
+        if (len < 0) {
+            return null;
+        }
+        if (len > MAX_STRING_BYTES) {
+            throw new IOException("Bad string length in journal: " + len);
+        }
+        byte[] bytes = new byte[len];
+        dis.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void close(Closeable closeable) {
+        if (null == closeable) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            if (DEBUG) {
+                Log.d(TAG, "Failed to close journal", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016 Samsung Electronics America
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.samsung.msca.samsungvr.sdk;
+
+import android.os.SystemClock;
+
+/*
+ * Token bucket of upload bytes.  Tokens accrue at the rate, up to BURST_MS worth of them.
+ * A taker may go into debt, so that reads larger than the bucket go through, and the next
+ * taker waits until the debt is paid off.  The rate can be changed at any time, 0 lifts
+ * the limit.
+ */
+
+class UploadRateLimiter {
+
+    private static final long BURST_MS = 250;
+
+    private volatile long mRate;
+    private double mTokens;
+    private long mLastRefill;
+
+    UploadRateLimiter(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+    synchronized void setRate(long bytesPerSecond) {
+        refill(now());
+        mRate = Math.max(0, bytesPerSecond);
+        mTokens = Math.min(mTokens, getCapacity());
+    }
+
+    long getRate() {
+        return mRate;
+    }
+
+    boolean isLimited() {
+        return mRate > 0;
+    }
+
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    private double getCapacity() {
+        return mRate * BURST_MS / 1000.0;
+    }
+
+    private void refill(long now) {
+        mTokens = Math.min(getCapacity(), mTokens + (now - mLastRefill) * mRate / 1000.0);
+        mLastRefill = now;
+    }
+
+    /*
+     * Takes len tokens if there is any left, and returns 0.  Otherwise takes nothing and
+     * returns the time in milliseconds until there are.
+     */
+
+    synchronized long tryAcquire(int len) {
+        long rate = mRate;
+        if (rate <= 0) {
+            return 0;
+        }
+        refill(now());
+        if (mTokens > 0.0) {
+            mTokens -= len;
+            return 0;
+        }
+        return Math.max(1, (long)Math.ceil(-mTokens * 1000.0 / rate));
+    }
+}
@@ -69,6 +69,8 @@ public interface User extends Observable.Spec<User.Observer> {
         /**
          * Callback delivering results of uploadVideo. Most status codes
          * are self explanatory. The non-obvious ones are documented.
+         * onProgress counts the chunks uploaded out of the chunks in the video.  Also
+         * implement VR.Result.TransferProgressCallback for bytes, rate and time left.
          */
 
         public interface UploadVideo extends VR.Result.BaseCallback,
@@ -223,9 +225,30 @@ public interface User extends Observable.Spec<User.Observer> {
                             Handler handler,
                             Object closure);
 
+    /**
+     * Same as createLiveEvent above, scheduled with the given priority.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     */
+
+    boolean createLiveEvent(String title,
+                            String description,
+                            UserVideo.Permission permission,
+                            UserLiveEvent.Source protocol,
+                            UserVideo.VideoStereoscopyType videoStereoscopyType,
+                            List<String> tags,
+                            UserVideo.CameraMetadata cameraMetadata,
+                            UserVideo.LocationInfo locationInfo,
+                            UserLiveEvent.StreamQuality streamQuality,
+                            VR.Priority priority,
+                            User.Result.CreateLiveEvent callback,
+                            Handler handler,
+                            Object closure);
+
 
     /**
-     * Queries the live events of the user
+     * Queries the live events of the user. Calls made while an identical query is pending
+     * share its result, each on its own handler.
      *
      * @param callback This may be NULL. SDK does not close the source parcel file descriptor.
      *                 SDK transfers back ownership of the FD only on the callback.  Consider
@@ -239,6 +262,27 @@ public interface User extends Observable.Spec<User.Observer> {
 
     boolean queryLiveEvents(Result.QueryLiveEvents callback, Handler handler, Object closure);
 
+    /**
+     * Same as queryLiveEvents above, scheduled with the given priority.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     */
+
+    boolean queryLiveEvents(VR.Priority priority, Result.QueryLiveEvents callback,
+                            Handler handler, Object closure);
+
+    /**
+     * Same as queryLiveEvents above, with a deadline.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     * @param deadline SystemClock.elapsedRealtime() based time after which the result is of no
+     *                 use, 0 for none. A request still waiting to start by then fails with
+     *                 VR.Result.STATUS_EXPIRED without being sent.
+     */
+
+    boolean queryLiveEvents(VR.Priority priority, long deadline, Result.QueryLiveEvents callback,
+                            Handler handler, Object closure);
+
     /**
      * Given an live event id, return the corresponding live event
      *
@@ -252,6 +296,29 @@ public interface User extends Observable.Spec<User.Observer> {
     boolean queryLiveEvent(String liveEventId, UserLiveEvent.Result.QueryLiveEvent callback,
                            Handler handler, Object closure);
 
+    /**
+     * Same as queryLiveEvent above, scheduled with the given priority.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     */
+
+    boolean queryLiveEvent(String liveEventId, VR.Priority priority,
+                           UserLiveEvent.Result.QueryLiveEvent callback,
+                           Handler handler, Object closure);
+
+    /**
+     * Same as queryLiveEvent above, with a deadline.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     * @param deadline SystemClock.elapsedRealtime() based time after which the result is of no
+     *                 use, 0 for none. A request still waiting to start by then fails with
+     *                 VR.Result.STATUS_EXPIRED without being sent.
+     */
+
+    boolean queryLiveEvent(String liveEventId, VR.Priority priority, long deadline,
+                           UserLiveEvent.Result.QueryLiveEvent callback,
+                           Handler handler, Object closure);
+
 
     /**
      * Upload a video
@@ -291,6 +358,26 @@ public interface User extends Observable.Spec<User.Observer> {
                         Handler handler,
                         Object closure);
 
+    /**
+     * Same as uploadVideo above, scheduled with the given priority.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     */
+
+    boolean uploadVideo(ParcelFileDescriptor source,
+                        String title,
+                        String description,
+                        List<String> tags,
+                        List<String> categories,
+                        UserVideo.Permission permission,
+                        String cameraModel,
+                        UserVideo.LocationInfo locationInfo,
+                        Boolean stabilize,
+                        VR.Priority priority,
+                        Result.UploadVideo callback,
+                        Handler handler,
+                        Object closure);
+
 
     /**
      * Cancels an already started video upload
@@ -302,4 +389,27 @@ public interface User extends Observable.Spec<User.Observer> {
 
     boolean cancelUploadVideo(Object closure);
 
+    /**
+     * Cancels every pending or running request made on this user, its live events and its
+     * videos, for example before the application logs the user out.  Each cancelled request
+     * reports onCancelled to its callback.
+     *
+     * @return true if any request was cancelled, false otherwise
+     */
+
+    boolean cancelAllRequests();
+
+    /**
+     * Lists the video uploads of this user that an earlier run of the application started
+     * but did not complete, as recorded in the journal set with
+     * VR.Options.setUploadJournalDir.  Resume one with UserVideo.retryUpload, passing a new
+     * file descriptor for the same file, or drop it with UserVideo.discardUpload.  Meant to
+     * be called once after login, before new uploads are started.  Uploads that had not
+     * completed their first chunk are not listed, they have to be started over.
+     *
+     * @return A non null list, empty if there is no journal
+     */
+
+    List<UserVideo> getInterruptedUploads();
+
 }
\ No newline at end of file
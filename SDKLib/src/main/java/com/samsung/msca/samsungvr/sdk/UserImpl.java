@@ -32,8 +32,6 @@ import org.json.JSONObject;
 
 import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -120,20 +118,8 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
         }
     };
 
-    private MessageDigest mMD5Digest = null;
-
     private UserImpl(APIClientImpl apiClient, JSONObject jsonObject) {
         super(sType, apiClient, jsonObject);
-        try {
-            mMD5Digest = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            Log.e(TAG, "Exception while getting digest", e);
-            mMD5Digest = null;
-        }
-    }
-
-    MessageDigest getMD5Digest() {
-        return mMD5Digest;
     }
 
     @Override
@@ -241,10 +227,24 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
 
     @Override
     public boolean queryLiveEvent(String liveEventId, UserLiveEvent.Result.QueryLiveEvent callback, Handler handler, Object closure) {
+        return queryLiveEvent(liveEventId, null, callback, handler, closure);
+    }
+
+    @Override
+    public boolean queryLiveEvent(String liveEventId, VR.Priority priority,
+            UserLiveEvent.Result.QueryLiveEvent callback, Handler handler, Object closure) {
+        return queryLiveEvent(liveEventId, priority, 0, callback, handler, closure);
+    }
+
+    @Override
+    public boolean queryLiveEvent(String liveEventId, VR.Priority priority, long deadline,
+            UserLiveEvent.Result.QueryLiveEvent callback, Handler handler, Object closure) {
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue = getContainer().getAsyncWorkQueue();
 
         UserLiveEventImpl.WorkItemQuery workItem = workQueue.obtainWorkItem(UserLiveEventImpl.WorkItemQuery.TYPE);
         workItem.set(this, liveEventId, null, callback, handler, closure);
+        workItem.overridePriority(priority);
+        workItem.setDeadline(deadline, false);
         return workQueue.enqueue(workItem);
     }
 
@@ -261,21 +261,55 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
                                    UserImpl.Result.CreateLiveEvent callback,
                                    Handler handler,
                                    Object closure) {
+        return createLiveEvent(title, description, permission, source, videoStereoscopyType,
+                tags, cameraMetadata, locationInfo, streamQuality, null, callback, handler, closure);
+    }
+
+    @Override
+    public boolean createLiveEvent(String title,
+                                   String description,
+                                   UserVideo.Permission permission,
+                                   UserLiveEvent.Source source,
+                                   UserVideo.VideoStereoscopyType videoStereoscopyType,
+                                   List<String> tags,
+                                   UserVideo.CameraMetadata cameraMetadata,
+                                   UserVideo.LocationInfo locationInfo,
+                                   UserLiveEvent.StreamQuality streamQuality,
+                                   VR.Priority priority,
+                                   UserImpl.Result.CreateLiveEvent callback,
+                                   Handler handler,
+                                   Object closure) {
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue = getContainer().getAsyncWorkQueue();
 
         WorkItemCreateLiveEvent workItem = workQueue.obtainWorkItem(WorkItemCreateLiveEvent.TYPE);
         workItem.set(this, title, description, permission, source,
                 videoStereoscopyType, tags, cameraMetadata, locationInfo, streamQuality,
                 callback, handler, closure);
+        workItem.overridePriority(priority);
         return workQueue.enqueue(workItem);
     }
 
     @Override
     public boolean queryLiveEvents(Result.QueryLiveEvents callback, Handler handler, Object closure) {
+        return queryLiveEvents(null, callback, handler, closure);
+    }
+
+    @Override
+    public boolean queryLiveEvents(VR.Priority priority, Result.QueryLiveEvents callback,
+                                   Handler handler, Object closure) {
+        return queryLiveEvents(priority, 0, callback, handler, closure);
+    }
+
+    @Override
+    public boolean queryLiveEvents(VR.Priority priority, long deadline,
+                                   Result.QueryLiveEvents callback, Handler handler,
+                                   Object closure) {
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue = getContainer().getAsyncWorkQueue();
 
         WorkItemQueryLiveEvents workItem = workQueue.obtainWorkItem(WorkItemQueryLiveEvents.TYPE);
         workItem.set(this, callback, handler, closure);
+        workItem.overridePriority(priority);
+        workItem.setDeadline(deadline, false);
         return workQueue.enqueue(workItem);
     }
 
@@ -294,6 +328,15 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
             List<String> tags, List<String> categories, UserVideo.Permission permission,
             String cameraModel, UserVideo.LocationInfo locationInfo, Boolean stabilize,
             Result.UploadVideo callback, Handler handler, Object closure) {
+        return uploadVideo(source, title, description, tags, categories, permission, cameraModel,
+                locationInfo, stabilize, null, callback, handler, closure);
+    }
+
+    @Override
+    public boolean uploadVideo(ParcelFileDescriptor source, String title, String description,
+            List<String> tags, List<String> categories, UserVideo.Permission permission,
+            String cameraModel, UserVideo.LocationInfo locationInfo, Boolean stabilize,
+            VR.Priority priority, Result.UploadVideo callback, Handler handler, Object closure) {
         if (DEBUG) {
             String tagDebug = strFromList(tags);
             String categoriesDebug = strFromList(categories);
@@ -308,6 +351,7 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
         WorkItemNewVideoUpload workItem = workQueue.obtainWorkItem(WorkItemNewVideoUpload.TYPE);
         workItem.set(this, source, title, description, tags, categories, permission, cameraModel,
                 locationInfo, stabilize, callback, handler, closure);
+        workItem.overridePriority(priority);
         return workQueue.enqueue(workItem);
     }
 
@@ -317,36 +361,53 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
             Log.d(TAG, "Cancelled video upload requested with closure: " + closure);
         }
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue = getContainer().getAsyncUploadQueue();
-        BooleanHolder found = new BooleanHolder();
-        workQueue.iterateWorkItems(new AsyncWorkQueue.IterationObserver<ClientWorkItemType, ClientWorkItem<?>>() {
-            @Override
-            public boolean onIterate(ClientWorkItem workItem, Object... args) {
-                Object argClosure = args[0];
-                BooleanHolder myFound = (BooleanHolder) args[1];
-                AsyncWorkItemType type = workItem.getType();
-                if (WorkItemNewVideoUpload.TYPE == type ||
-                        UserVideoImpl.WorkItemVideoContentUpload.TYPE == type) {
-                    Object uploadClosure = workItem.getClosure();
-                    if (DEBUG) {
-                        Log.d(TAG, "Found video upload related work item " + workItem +
-                                " closure: " + uploadClosure);
-                    }
-                    if (Util.checkEquals(argClosure, uploadClosure)) {
-                        workItem.cancel();
-                        myFound.setToTrue();
-                        if (DEBUG) {
-                            Log.d(TAG, "Cancelled video upload related work item " + workItem);
-                        }
-                    }
-                }
-                return true;
-            }
-        }, closure, found);
-        boolean ret = found.getValue();
+        boolean ret = workQueue.cancelByCancelKey(closure, WorkItemNewVideoUpload.TYPE,
+                UserVideoImpl.WorkItemVideoContentUpload.TYPE) > 0;
         if (DEBUG) {
             Log.d(TAG, "Cancelled video upload result: " + ret + " closure: " + closure);
         }
-        return found.getValue();
+        return ret;
+    }
+
+    @Override
+    public boolean cancelAllRequests() {
+        APIClientImpl apiClient = getContainer();
+        int count = apiClient.getAsyncWorkQueue().cancelByOwner(this) +
+                apiClient.getAsyncUploadQueue().cancelByOwner(this) +
+                apiClient.getAsyncSegmentQueue().cancelByOwner(this);
+        if (DEBUG) {
+            Log.d(TAG, "Cancelled all requests of user: " + this + " count: " + count);
+        }
+        return count > 0;
+    }
+
+    @Override
+    public List<UserVideo> getInterruptedUploads() {
+        List<UserVideo> result = new ArrayList<>();
+        UploadJournal journal = getContainer().getUploadJournal();
+        if (null == journal) {
+            return result;
+        }
+        for (UploadJournal.Entry entry : journal.load(getUserId())) {
+            if (entry.mLastSuccessfulChunk < 0) {
+                /*
+                 * Not even the first chunk made it, and only the URL handed out when the
+                 * upload was created, long expired by now, could send it
+                 */
+                if (DEBUG) {
+                    Log.d(TAG, "Dropping interrupted upload with no chunk sent, video: "
+                            + entry.mVideoId);
+                }
+                journal.remove(entry.mVideoId);
+                continue;
+            }
+            /*
+             * Rewrite the journal, which drops a torn record left by the process that died
+             */
+            journal.create(entry);
+            result.add(UserVideoImpl.restore(this, entry));
+        }
+        return result;
     }
 
     /*
@@ -360,6 +421,16 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
             public WorkItemCreateLiveEvent newInstance(APIClientImpl apiClient) {
                 return new WorkItemCreateLiveEvent(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.INTERACTIVE;
+            }
+
+            @Override
+            public String getName() {
+                return "CreateLiveEvent";
+            }
         };
 
         WorkItemCreateLiveEvent(APIClientImpl apiClient) {
@@ -391,6 +462,8 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
                                                  Result.CreateLiveEvent callback,
                                                  Handler handler, Object closure) {
             super.set(callback, handler, closure);
+            setOrderingKey(user.getUserId());
+            setOwners(user, null);
             mUser = user;
             mTitle = title;
             mPermission = permission;
@@ -522,15 +595,14 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
                 if (DEBUG) {
                     Log.d(TAG, "Rsp code: " + rsp);
                 }
-                String data2 = readHttpStream(request, "code: " + rsp);
-                if (null == data2) {
+                JSONObject jsonObject = readHttpJson(request, "code: " + rsp);
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
                 if (DEBUG) {
-                    Log.d(TAG, "data2 = " + data2);
+                    Log.d(TAG, "jsonObject = " + jsonObject);
                 }
-                JSONObject jsonObject = new JSONObject(data2);
                 if (HttpURLConnection.HTTP_OK == rsp) {
                     if (DEBUG) {
                         Log.d(TAG, "data= " + data);
@@ -564,6 +636,16 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
             public WorkItemQueryLiveEvents newInstance(APIClientImpl apiClient) {
                 return new WorkItemQueryLiveEvents(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.INTERACTIVE;
+            }
+
+            @Override
+            public String getName() {
+                return "QueryLiveEvents";
+            }
         };
 
         WorkItemQueryLiveEvents(APIClientImpl apiClient) {
@@ -575,6 +657,8 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
         synchronized WorkItemQueryLiveEvents set(UserImpl user, Result.QueryLiveEvents callback,
                                                       Handler handler, Object closure) {
             super.set(callback, handler, closure);
+            setOrderingKey(user.getUserId());
+            setOwners(user, null);
             mUser = user;
             return this;
         }
@@ -585,6 +669,11 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
             mUser = null;
         }
 
+        @Override
+        protected Object getCoalesceKey() {
+            return toCoalesceKey(mUser);
+        }
+
         private static final String TAG = Util.getLogTag(WorkItemQueryLiveEvents.class);
 
         @Override
@@ -613,16 +702,15 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
                 }
 
                 int rsp = getResponseCode(request);
-                String data = readHttpStream(request, "code: " + rsp);
-                if (null == data) {
+                JSONObject jsonObject = readHttpJson(request, "code: " + rsp);
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
                 if (DEBUG) {
-                    Log.d(TAG, data);
+                    Log.d(TAG, jsonObject.toString());
                 }
 
-                JSONObject jsonObject = new JSONObject(data);
                 if (isHTTPSuccess(rsp)) {
                     List<UserLiveEventImpl> result = mUser.containerOnQueryListOfContainedFromServiceLocked(UserLiveEventImpl.sType, jsonObject);
                     if (null != result) {
@@ -711,6 +799,16 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
             public WorkItemNewVideoUpload newInstance(APIClientImpl apiClient) {
                 return new WorkItemNewVideoUpload(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.BULK;
+            }
+
+            @Override
+            public String getName() {
+                return "NewVideoUpload";
+            }
         };
 
         WorkItemNewVideoUpload(APIClientImpl apiClient) {
@@ -739,6 +837,8 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
                                    Object closure) {
 
             set(new AtomicBoolean(), callback, handler, closure);
+            setOrderingKey(user.getUserId());
+            setOwners(user, null);
             mUser = user;
             mTitle = title;
             mDescription = description;
@@ -873,12 +973,11 @@ class UserImpl extends ContainedContainer.BaseImpl<APIClientImpl, User.Observer>
                 }
 
                 int rsp = getResponseCode(request);
-                String data4 = readHttpStream(request, "code: " + rsp);
-                if (null == data4) {
+                JSONObject jsonObject = readHttpJson(request, "code: " + rsp);
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
-                JSONObject jsonObject = new JSONObject(data4);
 
                 if (!isHTTPSuccess(rsp)) {
                     int status = jsonObject.optInt("status",
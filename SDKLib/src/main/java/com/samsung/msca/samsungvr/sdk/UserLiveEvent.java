@@ -23,7 +23,9 @@
 package com.samsung.msca.samsungvr.sdk;
 
 import android.os.Handler;
+import android.os.ParcelFileDescriptor;
 
+import java.io.InputStream;
 import java.util.Locale;
 
 public interface UserLiveEvent {
@@ -130,6 +132,21 @@ public interface UserLiveEvent {
     }
 
 
+    interface SegmentDropListener {
+
+        /**
+         * A segment was dropped because it waited longer than the latency budget.  Its
+         * request also fails with Result.UploadSegmentAsBytes.STATUS_SEGMENT_DROPPED.
+         *
+         * @param segmentId Id the segment would have been uploaded with
+         * @param closure The closure the segment was submitted with
+         * @param waitTime Time in ms the segment had waited
+         */
+
+        void onSegmentDropped(UserLiveEvent liveEvent, String segmentId, Object closure,
+                              long waitTime);
+    }
+
     final class Result {
 
         private Result() {
@@ -207,6 +224,12 @@ public interface UserLiveEvent {
             public static final int STATUS_SEGMENT_NO_MD5_IMPL = 101;
             public static final int STATUS_SEGMENT_UPLOAD_FAILED = 102;
             public static final int STATUS_SEGMENT_END_NOTIFY_FAILED = 103;
+
+            /**
+             * The segment waited longer than the latency budget set with
+             * setSegmentLatencyBudget, and was dropped without being sent.
+             */
+            public static final int STATUS_SEGMENT_DROPPED = 104;
         }
 
     }
@@ -215,7 +238,8 @@ public interface UserLiveEvent {
 
 
     /**
-     * Queries the the details if the specific live event
+     * Queries the the details if the specific live event. Calls made while an identical query
+     * is pending share its result, each on its own handler.
      *
      * @param callback This may be NULL.
      * @param handler A handler on which callback should be called. If null, main handler is used.
@@ -226,6 +250,28 @@ public interface UserLiveEvent {
 
     boolean query(Result.QueryLiveEvent callback, Handler handler, Object closure);
 
+    /**
+     * Same as query above, scheduled with the given priority.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     */
+
+    boolean query(VR.Priority priority, Result.QueryLiveEvent callback, Handler handler,
+                  Object closure);
+
+    /**
+     * Same as query above, with a deadline. Useful for polling the viewer count, where a
+     * late answer is worthless.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     * @param deadline SystemClock.elapsedRealtime() based time after which the result is of no
+     *                 use, 0 for none. A request still waiting to start by then fails with
+     *                 VR.Result.STATUS_EXPIRED without being sent.
+     */
+
+    boolean query(VR.Priority priority, long deadline, Result.QueryLiveEvent callback,
+                  Handler handler, Object closure);
+
 
 
     /**
@@ -240,6 +286,15 @@ public interface UserLiveEvent {
 
     boolean delete(Result.DeleteLiveEvent callback, Handler handler, Object closure);
 
+    /**
+     * Same as delete above, scheduled with the given priority.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     */
+
+    boolean delete(VR.Priority priority, Result.DeleteLiveEvent callback, Handler handler,
+                   Object closure);
+
     /**
      * Sets the state of the live event FINISHED.
      *
@@ -257,6 +312,15 @@ public interface UserLiveEvent {
 
     boolean finish(FinishAction action, Result.Finish callback, Handler handler, Object closure);
 
+    /**
+     * Same as finish above, scheduled with the given priority.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     */
+
+    boolean finish(FinishAction action, VR.Priority priority, Result.Finish callback,
+                   Handler handler, Object closure);
+
 
     UserVideo.Permission getPermission();
 
@@ -279,6 +343,15 @@ public interface UserLiveEvent {
     boolean setPermission(UserVideo.Permission permission, Result.SetPermission callback,
                           Handler handler, Object closure);
 
+    /**
+     * Same as setPermission above, scheduled with the given priority.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     */
+
+    boolean setPermission(UserVideo.Permission permission, VR.Priority priority,
+                          Result.SetPermission callback, Handler handler, Object closure);
+
 
     String getId();
     String getTitle();
@@ -298,6 +371,15 @@ public interface UserLiveEvent {
     boolean setTitle(String title, VR.Result.SimpleCallback callback,
                      Handler handler, Object closure);
 
+    /**
+     * Same as setTitle above, scheduled with the given priority.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     */
+
+    boolean setTitle(String title, VR.Priority priority, VR.Result.SimpleCallback callback,
+                     Handler handler, Object closure);
+
     String getDescription();
 
 
@@ -317,6 +399,15 @@ public interface UserLiveEvent {
     boolean setDescription(String description, VR.Result.SimpleCallback callback,
                            Handler handler, Object closure);
 
+    /**
+     * Same as setDescription above, scheduled with the given priority.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     */
+
+    boolean setDescription(String description, VR.Priority priority,
+                           VR.Result.SimpleCallback callback, Handler handler, Object closure);
+
 
     /**
      * Sets new title, description and permission to a live event.
@@ -341,6 +432,18 @@ public interface UserLiveEvent {
                             VR.Result.SimpleCallback callback,
                             Handler handler, Object closure);
 
+    /**
+     * Same as updateLiveEvent above, scheduled with the given priority.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     */
+
+    boolean updateLiveEvent(String title, String description,
+                            UserVideo.Permission permission,
+                            VR.Priority priority,
+                            VR.Result.SimpleCallback callback,
+                            Handler handler, Object closure);
+
 
     String getProducerUrl();
     String getViewUrl();
@@ -394,6 +497,32 @@ public interface UserLiveEvent {
 
     boolean cancelUploadSegment(Object closure);
 
+    /**
+     * Cancels every pending or running request made on this live event, including segment
+     * uploads.  Each cancelled request reports onCancelled to its callback.
+     *
+     * @return true if any request was cancelled, false otherwise
+     */
+
+    boolean cancelAllRequests();
+
+    /**
+     * Keeps segment uploads close to real time when the uplink falls behind.  A segment that
+     * waited longer than the budget by the time its turn comes is dropped instead of sent,
+     * so that the next, more recent ones go out sooner.  Applies to segments already
+     * waiting.
+     *
+     * @param latencyBudgetMs Longest time a segment may wait to be sent, 0 for no budget,
+     *                        which is the default
+     * @param keepEvery 0 drops every segment over the budget, k greater than 0 still sends
+     *                  every k-th of a run of them
+     * @param listener Told about each dropped segment, may be null
+     * @param handler A handler on which listener should be called. If null, main handler is used.
+     */
+
+    void setSegmentLatencyBudget(long latencyBudgetMs, int keepEvery,
+                                 SegmentDropListener listener, Handler handler);
+
     /**
      * Upload a video file from memory bytes
      *
@@ -411,4 +540,70 @@ public interface UserLiveEvent {
 
     boolean uploadSegmentAsBytes(byte[] source, UserLiveEvent.Result.UploadSegmentAsBytes callback,
         Handler handler, Object closure);
+
+    /**
+     * Same as uploadSegmentAsBytes above, scheduled with the given priority.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     */
+
+    boolean uploadSegmentAsBytes(byte[] source, VR.Priority priority,
+        UserLiveEvent.Result.UploadSegmentAsBytes callback, Handler handler, Object closure);
+
+    /**
+     * Same as uploadSegmentAsBytes above, with a deadline.
+     *
+     * @param priority Scheduling class of this request. If null, the default for the request is used.
+     * @param deadline SystemClock.elapsedRealtime() based time after which the segment is of no
+     *                 use, 0 for none. A segment still waiting to start by then is not sent, and
+     *                 an upload still in progress is aborted.  Either way the request fails
+     *                 with VR.Result.STATUS_EXPIRED.
+     */
+
+    boolean uploadSegmentAsBytes(byte[] source, VR.Priority priority, long deadline,
+        UserLiveEvent.Result.UploadSegmentAsBytes callback, Handler handler, Object closure);
+
+    /**
+     * Upload a segment straight from a file, without reading it into memory first. Progress,
+     * cancellation and callbacks are the same as with uploadSegmentAsBytes.
+     *
+     * @param source A regular file, sent whole. Ownership of this FD passes onto the SDK from
+     *               this point onwards till the results are delivered via callback. The SDK
+     *               reads it with positional reads, leaving its file pointer alone, and does
+     *               not close it.
+     * @return true if the upload was started, false otherwise, for example if source is not
+     *         a regular file
+     */
+
+    boolean uploadSegment(ParcelFileDescriptor source,
+        UserLiveEvent.Result.UploadSegmentAsBytes callback, Handler handler, Object closure);
+
+    /**
+     * Same as uploadSegment above, with a priority and a deadline, see uploadSegmentAsBytes.
+     */
+
+    boolean uploadSegment(ParcelFileDescriptor source, VR.Priority priority, long deadline,
+        UserLiveEvent.Result.UploadSegmentAsBytes callback, Handler handler, Object closure);
+
+    /**
+     * Upload a segment read from a stream as it is sent. Progress, cancellation and callbacks
+     * are the same as with uploadSegmentAsBytes.
+     *
+     * @param source Ownership of this stream passes onto the SDK from this point onwards till
+     *               the results are delivered via callback. The SDK reads length bytes from it,
+     *               on a thread of its own, and does not close it.
+     * @param length Number of bytes of the segment. The upload fails if the stream ends
+     *               before that.
+     * @return true if the upload was started, false otherwise
+     */
+
+    boolean uploadSegment(InputStream source, long length,
+        UserLiveEvent.Result.UploadSegmentAsBytes callback, Handler handler, Object closure);
+
+    /**
+     * Same as uploadSegment above, with a priority and a deadline, see uploadSegmentAsBytes.
+     */
+
+    boolean uploadSegment(InputStream source, long length, VR.Priority priority, long deadline,
+        UserLiveEvent.Result.UploadSegmentAsBytes callback, Handler handler, Object closure);
 }
@@ -23,6 +23,7 @@
 package com.samsung.msca.samsungvr.sdk;
 
 import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelFileDescriptor;
 import android.os.SystemClock;
 import android.util.Base64;
@@ -42,6 +43,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLiveEvent {
 
@@ -69,6 +71,30 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
 
     private int mSegmentId = -1;
 
+    private static final class SegmentLatencyBudget {
+
+        final long mBudget;
+        final int mKeepEvery;
+        final SegmentDropListener mListener;
+        final Handler mHandler;
+
+        SegmentLatencyBudget(long budget, int keepEvery, SegmentDropListener listener,
+                             Handler handler) {
+            mBudget = budget;
+            mKeepEvery = keepEvery;
+            mListener = listener;
+            mHandler = handler;
+        }
+    }
+
+    private volatile SegmentLatencyBudget mSegmentLatencyBudget;
+
+    /*
+     * Length of the current run of segments found over budget
+     */
+
+    private final AtomicInteger mSegmentsOverBudget = new AtomicInteger();
+
     static final Contained.Type sType = new Contained.Type<UserImpl, UserLiveEventImpl>(Properties.class) {
 
         @Override
@@ -259,62 +285,111 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
 
     @Override
     public boolean query(Result.QueryLiveEvent callback, Handler handler, Object closure) {
+        return query(null, callback, handler, closure);
+    }
+
+    @Override
+    public boolean query(VR.Priority priority, Result.QueryLiveEvent callback, Handler handler,
+                         Object closure) {
+        return query(priority, 0, callback, handler, closure);
+    }
+
+    @Override
+    public boolean query(VR.Priority priority, long deadline, Result.QueryLiveEvent callback,
+                         Handler handler, Object closure) {
         APIClientImpl apiClient = getContainer().getContainer();
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue = apiClient.getAsyncWorkQueue();
 
         WorkItemQuery workItem = workQueue.obtainWorkItem(WorkItemQuery.TYPE);
         workItem.set(this.getContainer(), getId(), this, callback, handler, closure);
+        workItem.overridePriority(priority);
+        workItem.setDeadline(deadline, false);
         return workQueue.enqueue(workItem);
     }
 
     @Override
     public boolean delete(Result.DeleteLiveEvent callback, Handler handler, Object closure) {
+        return delete(null, callback, handler, closure);
+    }
+
+    @Override
+    public boolean delete(VR.Priority priority, Result.DeleteLiveEvent callback, Handler handler,
+                          Object closure) {
         APIClientImpl apiClient = getContainer().getContainer();
 
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue = apiClient.getAsyncWorkQueue();
         WorkItemDelete workItem = workQueue.obtainWorkItem(WorkItemDelete.TYPE);
         workItem.set(this, callback, handler, closure);
+        workItem.overridePriority(priority);
         return workQueue.enqueue(workItem);
     }
 
 
     @Override
     public boolean finish(FinishAction action, Result.Finish callback, Handler handler, Object closure) {
+        return finish(action, null, callback, handler, closure);
+    }
+
+    @Override
+    public boolean finish(FinishAction action, VR.Priority priority, Result.Finish callback,
+                          Handler handler, Object closure) {
         APIClientImpl apiClient = getContainer().getContainer();
 
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue = apiClient.getAsyncWorkQueue();
         WorkItemFinish workItem = workQueue.obtainWorkItem(WorkItemFinish.TYPE);
         workItem.set(this, action, callback, handler, closure);
+        workItem.overridePriority(priority);
         return workQueue.enqueue(workItem);
     }
 
     @Override
     public boolean setPermission(UserVideo.Permission permission, Result.SetPermission callback, Handler handler, Object closure) {
+        return setPermission(permission, null, callback, handler, closure);
+    }
+
+    @Override
+    public boolean setPermission(UserVideo.Permission permission, VR.Priority priority,
+                                 Result.SetPermission callback, Handler handler, Object closure) {
         APIClientImpl apiClient = getContainer().getContainer();
 
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue = apiClient.getAsyncWorkQueue();
         WorkItemSetPermission workItem = workQueue.obtainWorkItem(WorkItemSetPermission.TYPE);
         workItem.set(this, permission, callback, handler, closure);
+        workItem.overridePriority(priority);
         return workQueue.enqueue(workItem);
     }
 
     @Override
     public boolean setTitle(String title, VR.Result.SimpleCallback callback,
                             Handler handler, Object closure) {
+        return setTitle(title, null, callback, handler, closure);
+    }
+
+    @Override
+    public boolean setTitle(String title, VR.Priority priority, VR.Result.SimpleCallback callback,
+                            Handler handler, Object closure) {
         APIClientImpl apiClient = getContainer().getContainer();
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue = apiClient.getAsyncWorkQueue();
         WorkItemSetTitle workItem = workQueue.obtainWorkItem(WorkItemSetTitle.TYPE);
         workItem.set(this, title, callback, handler, closure);
+        workItem.overridePriority(priority);
         return workQueue.enqueue(workItem);
     }
 
     @Override
     public boolean setDescription(String description, VR.Result.SimpleCallback callback,
                                   Handler handler, Object closure) {
+        return setDescription(description, null, callback, handler, closure);
+    }
+
+    @Override
+    public boolean setDescription(String description, VR.Priority priority,
+                                  VR.Result.SimpleCallback callback, Handler handler, Object closure) {
         APIClientImpl apiClient = getContainer().getContainer();
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue = apiClient.getAsyncWorkQueue();
         WorkItemSetDescription workItem = workQueue.obtainWorkItem(WorkItemSetDescription.TYPE);
         workItem.set(this, description, callback, handler, closure);
+        workItem.overridePriority(priority);
         return workQueue.enqueue(workItem);
     }
 
@@ -324,10 +399,20 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                                    UserVideo.Permission permission,
                                    VR.Result.SimpleCallback callback,
                                    Handler handler, Object closure) {
+        return updateLiveEvent(title, description, permission, null, callback, handler, closure);
+    }
+
+    @Override
+    public boolean updateLiveEvent(String title, String description,
+                                   UserVideo.Permission permission,
+                                   VR.Priority priority,
+                                   VR.Result.SimpleCallback callback,
+                                   Handler handler, Object closure) {
         APIClientImpl apiClient = getContainer().getContainer();
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue = apiClient.getAsyncWorkQueue();
         WorkItemUpdateLiveEvent workItem = workQueue.obtainWorkItem(WorkItemUpdateLiveEvent.TYPE);
         workItem.set(this, title, description, permission, callback, handler, closure);
+        workItem.overridePriority(priority);
         return workQueue.enqueue(workItem);
 
     }
@@ -439,13 +524,85 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
     public boolean uploadSegmentAsBytes(byte[] source,
             UserLiveEvent.Result.UploadSegmentAsBytes callback,
             Handler handler, Object closure) {
+        return uploadSegmentAsBytes(source, null, callback, handler, closure);
+    }
+
+    @Override
+    public boolean uploadSegmentAsBytes(byte[] source,
+            VR.Priority priority,
+            UserLiveEvent.Result.UploadSegmentAsBytes callback,
+            Handler handler, Object closure) {
+        return uploadSegmentAsBytes(source, priority, 0, callback, handler, closure);
+    }
+
+    @Override
+    public boolean uploadSegmentAsBytes(byte[] source,
+            VR.Priority priority, long deadline,
+            UserLiveEvent.Result.UploadSegmentAsBytes callback,
+            Handler handler, Object closure) {
+        if (null == source) {
+            return false;
+        }
+        return uploadSegment(source, null, null, source.length, priority, deadline, callback,
+                handler, closure);
+    }
+
+    @Override
+    public boolean uploadSegment(ParcelFileDescriptor source,
+            UserLiveEvent.Result.UploadSegmentAsBytes callback,
+            Handler handler, Object closure) {
+        return uploadSegment(source, null, 0, callback, handler, closure);
+    }
+
+    @Override
+    public boolean uploadSegment(ParcelFileDescriptor source,
+            VR.Priority priority, long deadline,
+            UserLiveEvent.Result.UploadSegmentAsBytes callback,
+            Handler handler, Object closure) {
+        if (null == source) {
+            return false;
+        }
+        long length = source.getStatSize();
+        if (length < 0) {
+            return false;
+        }
+        return uploadSegment(null, source, null, length, priority, deadline, callback,
+                handler, closure);
+    }
+
+    @Override
+    public boolean uploadSegment(InputStream source, long length,
+            UserLiveEvent.Result.UploadSegmentAsBytes callback,
+            Handler handler, Object closure) {
+        return uploadSegment(source, length, null, 0, callback, handler, closure);
+    }
+
+    @Override
+    public boolean uploadSegment(InputStream source, long length,
+            VR.Priority priority, long deadline,
+            UserLiveEvent.Result.UploadSegmentAsBytes callback,
+            Handler handler, Object closure) {
+        if (null == source || length < 0) {
+            return false;
+        }
+        return uploadSegment(null, null, source, length, priority, deadline, callback,
+                handler, closure);
+    }
+
+    private boolean uploadSegment(byte[] bytes, ParcelFileDescriptor fd, InputStream stream,
+            long length, VR.Priority priority, long deadline,
+            UserLiveEvent.Result.UploadSegmentAsBytes callback,
+            Handler handler, Object closure) {
 
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue =
-                getContainer().getContainer().getAsyncUploadQueue();
+                getContainer().getContainer().getAsyncSegmentQueue();
 
         UserLiveEventImpl.WorkItemNewSegmentUploadAsBytes workItem =
                 workQueue.obtainWorkItem(UserLiveEventImpl.WorkItemNewSegmentUploadAsBytes.TYPE);
-        workItem.set(this, Integer.toString(++mSegmentId), source, callback, handler, closure);
+        workItem.set(this, Integer.toString(++mSegmentId), bytes, fd, stream, length, callback,
+                handler, closure);
+        workItem.overridePriority(priority);
+        workItem.setDeadline(deadline, true);
         return workQueue.enqueue(workItem);
     }
 
@@ -455,36 +612,69 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
             Log.d(TAG, "Cancelled video upload requested with closure: " + closure);
         }
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue =
-                getContainer().getContainer().getAsyncUploadQueue();
-        BooleanHolder found = new BooleanHolder();
-        workQueue.iterateWorkItems(new AsyncWorkQueue.IterationObserver<ClientWorkItemType, ClientWorkItem<?>>() {
-            @Override
-            public boolean onIterate(ClientWorkItem workItem, Object... args) {
-                Object argClosure = args[0];
-                BooleanHolder myFound = (BooleanHolder) args[1];
-                AsyncWorkItemType type = workItem.getType();
-                if (UserLiveEventImpl.WorkItemNewSegmentUploadAsBytes.TYPE == type) {
-                    Object uploadClosure = workItem.getClosure();
-                    if (DEBUG) {
-                        Log.d(TAG, "Found video upload related work item " + workItem +
-                                " closure: " + uploadClosure);
-                    }
-                    if (Util.checkEquals(argClosure, uploadClosure)) {
-                        workItem.cancel();
-                        myFound.setToTrue();
-                        if (DEBUG) {
-                            Log.d(TAG, "Cancelled video upload related work item " + workItem);
-                        }
-                    }
-                }
-                return true;
-            }
-        }, closure, found);
-        boolean ret = found.getValue();
+                getContainer().getContainer().getAsyncSegmentQueue();
+        boolean ret = workQueue.cancelByCancelKey(closure,
+                UserLiveEventImpl.WorkItemNewSegmentUploadAsBytes.TYPE) > 0;
         if (DEBUG) {
             Log.d(TAG, "Cancelled video upload result: " + ret + " closure: " + closure);
         }
-        return found.getValue();
+        return ret;
+    }
+
+    @Override
+    public void setSegmentLatencyBudget(long latencyBudgetMs, int keepEvery,
+                                        SegmentDropListener listener, Handler handler) {
+        if (latencyBudgetMs <= 0) {
+            mSegmentLatencyBudget = null;
+            return;
+        }
+        if (null != listener && null == handler) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        mSegmentLatencyBudget = new SegmentLatencyBudget(latencyBudgetMs, Math.max(0, keepEvery),
+                listener, handler);
+    }
+
+    /*
+     * Called when a segment's turn comes, returns true if it should be dropped
+     */
+
+    private boolean shouldDropSegment(final String segmentId, final Object closure,
+                                      final long waitTime) {
+        final SegmentLatencyBudget budget = mSegmentLatencyBudget;
+        if (null == budget || waitTime <= budget.mBudget) {
+            mSegmentsOverBudget.set(0);
+            return false;
+        }
+        int overBudget = mSegmentsOverBudget.incrementAndGet();
+        if (budget.mKeepEvery > 0 && 0 == overBudget % budget.mKeepEvery) {
+            return false;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Dropping segment: " + segmentId + " waited: " + waitTime +
+                    " budget: " + budget.mBudget);
+        }
+        if (null != budget.mListener) {
+            budget.mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    budget.mListener.onSegmentDropped(UserLiveEventImpl.this, segmentId, closure,
+                            waitTime);
+                }
+            });
+        }
+        return true;
+    }
+
+    @Override
+    public boolean cancelAllRequests() {
+        APIClientImpl apiClient = getContainer().getContainer();
+        int count = apiClient.getAsyncWorkQueue().cancelByOwner(this) +
+                apiClient.getAsyncSegmentQueue().cancelByOwner(this);
+        if (DEBUG) {
+            Log.d(TAG, "Cancelled all requests of live event: " + this + " count: " + count);
+        }
+        return count > 0;
     }
 
     /*
@@ -499,6 +689,16 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
             public WorkItemUploadThumbnail newInstance(APIClientImpl apiClient) {
                 return new WorkItemUploadThumbnail(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.BULK;
+            }
+
+            @Override
+            public String getName() {
+                return VR.UPLOAD_TYPE_THUMBNAIL;
+            }
         };
 
         WorkItemUploadThumbnail(APIClientImpl apiClient) {
@@ -513,6 +713,8 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                          Handler handler, Object closure) {
 
             super.set(callback, handler, closure);
+            setOrderingKey(liveEvent.getId());
+            setOwners(liveEvent, liveEvent.getContainer());
             mLiveEvent = liveEvent;
             mSource = source;
 
@@ -581,6 +783,16 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
             public WorkItemDelete newInstance(APIClientImpl apiClient) {
                 return new WorkItemDelete(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.INTERACTIVE;
+            }
+
+            @Override
+            public String getName() {
+                return "Delete";
+            }
         };
 
         WorkItemDelete(APIClientImpl apiClient) {
@@ -592,6 +804,8 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
         synchronized WorkItemDelete set(UserLiveEventImpl userLiveEvent, Result.DeleteLiveEvent callback,
                                         Handler handler, Object closure) {
             super.set(callback, handler, closure);
+            setOrderingKey(userLiveEvent.getId());
+            setOwners(userLiveEvent, userLiveEvent.getContainer());
             mUserLiveEvent = userLiveEvent;
             return this;
         }
@@ -640,12 +854,11 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                     }
                     return;
                 }
-                String data = readHttpStream(request, "code: " + rsp);
-                if (null == data) {
+                JSONObject jsonObject = readHttpJson(request, "code: " + rsp);
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
-                JSONObject jsonObject = new JSONObject(data);
                 int status = jsonObject.optInt("status", VR.Result.STATUS_SERVER_RESPONSE_NO_STATUS_CODE);
                 dispatchFailure(status);
 
@@ -664,6 +877,16 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
             public WorkItemQuery newInstance(APIClientImpl apiClient) {
                 return new WorkItemQuery(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.INTERACTIVE;
+            }
+
+            @Override
+            public String getName() {
+                return "Query";
+            }
         };
 
         WorkItemQuery(APIClientImpl apiClient) {
@@ -680,12 +903,19 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                Result.QueryLiveEvent callback,
                Handler handler, Object closure) {
             super.set(callback, handler, closure);
+            setOrderingKey(userLiveEventId);
+            setOwners(userLiveEventImpl, user);
             mUserLiveEventImpl = userLiveEventImpl;
             mUserLiveEventId = userLiveEventId;
             mUser = user;
             return this;
         }
 
+        @Override
+        protected Object getCoalesceKey() {
+            return toCoalesceKey(mUser, mUserLiveEventId, mUserLiveEventImpl);
+        }
+
         @Override
         protected synchronized void recycle() {
             super.recycle();
@@ -724,16 +954,15 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                 }
 
                 int rsp = getResponseCode(request);
-                String data = readHttpStream(request, "code: " + rsp);
+                JSONObject jsonObject = readHttpJson(request, "code: " + rsp);
 
-                if (null == data) {
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
                 if (DEBUG) {
-                    Log.d(TAG, "onSuccess : " + data);
+                    Log.d(TAG, "onSuccess : " + jsonObject);
                 }
-                JSONObject jsonObject = new JSONObject(data);
 
                 if (isHTTPSuccess(rsp)) {
                     JSONObject liveEvent = jsonObject.getJSONObject("video");
@@ -768,6 +997,16 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
             public WorkItemFinish newInstance(APIClientImpl apiClient) {
                 return new WorkItemFinish(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.INTERACTIVE;
+            }
+
+            @Override
+            public String getName() {
+                return "Finish";
+            }
         };
 
         WorkItemFinish(APIClientImpl apiClient) {
@@ -781,6 +1020,8 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                                              Result.Finish callback,
                                              Handler handler, Object closure) {
             super.set(callback, handler, closure);
+            setOrderingKey(userLiveEvent.getId());
+            setOwners(userLiveEvent, userLiveEvent.getContainer());
             mUserLiveEvent = userLiveEvent;
             return this;
         }
@@ -838,17 +1079,16 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                     return;
                 }
 
-                String data = readHttpStream(request, "failure");
-                if (null == data) {
+                JSONObject jsonObject = readHttpJson(request, "failure");
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
                 if (DEBUG) {
-                    Log.d(TAG, "onSuccess : " + data);
+                    Log.d(TAG, "onSuccess : " + jsonObject);
                 }
                 int status = VR.Result.STATUS_SERVER_RESPONSE_NO_STATUS_CODE;
                 try {
-                    JSONObject jsonObject = new JSONObject(data);
                     status = jsonObject.getInt("status");
                 }
                 finally {
@@ -872,6 +1112,16 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
             public WorkItemSetPermission newInstance(APIClientImpl apiClient) {
                 return new WorkItemSetPermission(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.INTERACTIVE;
+            }
+
+            @Override
+            public String getName() {
+                return "SetPermission";
+            }
         };
 
         WorkItemSetPermission(APIClientImpl apiClient) {
@@ -886,6 +1136,8 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                                         Result.SetPermission callback,
                                         Handler handler, Object closure) {
             super.set(callback, handler, closure);
+            setOrderingKey(userLiveEvent.getId());
+            setOwners(userLiveEvent, userLiveEvent.getContainer());
             mUserLiveEvent = userLiveEvent;
             mPermission = permission;
             return this;
@@ -946,16 +1198,15 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                     return;
                 }
 
-                String data = readHttpStream(request, "failure");
-                if (null == data) {
+                JSONObject jsonObject = readHttpJson(request, "failure");
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
                 if (DEBUG) {
-                    Log.d(TAG, "onSuccess : " + data);
+                    Log.d(TAG, "onSuccess : " + jsonObject);
                 }
 
-                JSONObject jsonObject = new JSONObject(data);
                 int status = jsonObject.optInt("status", VR.Result.STATUS_SERVER_RESPONSE_NO_STATUS_CODE);;
 
                 dispatchFailure(status);
@@ -974,6 +1225,16 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
             public WorkItemSetTitle newInstance(APIClientImpl apiClient) {
                 return new WorkItemSetTitle(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.INTERACTIVE;
+            }
+
+            @Override
+            public String getName() {
+                return "SetTitle";
+            }
         };
 
         WorkItemSetTitle(APIClientImpl apiClient) {
@@ -988,6 +1249,8 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                                                VR.Result.SimpleCallback callback,
                                                Handler handler, Object closure) {
             super.set(callback, handler, closure);
+            setOrderingKey(userLiveEvent.getId());
+            setOwners(userLiveEvent, userLiveEvent.getContainer());
             mUserLiveEvent = userLiveEvent;
             mTitle = title;
             return this;
@@ -1048,16 +1311,15 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                     return;
                 }
 
-                String data = readHttpStream(request, "failure");
-                if (null == data) {
+                JSONObject jsonObject = readHttpJson(request, "failure");
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
                 if (DEBUG) {
-                    Log.d(TAG, "onSuccess : " + data);
+                    Log.d(TAG, "onSuccess : " + jsonObject);
                 }
 
-                JSONObject jsonObject = new JSONObject(data);
                 int status = jsonObject.optInt("status", VR.Result.STATUS_SERVER_RESPONSE_NO_STATUS_CODE);;
 
                 dispatchFailure(status);
@@ -1077,6 +1339,16 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
             public WorkItemSetDescription newInstance(APIClientImpl apiClient) {
                 return new WorkItemSetDescription(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.INTERACTIVE;
+            }
+
+            @Override
+            public String getName() {
+                return "SetDescription";
+            }
         };
 
         WorkItemSetDescription(APIClientImpl apiClient) {
@@ -1091,6 +1363,8 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                                           VR.Result.SimpleCallback callback,
                                           Handler handler, Object closure) {
             super.set(callback, handler, closure);
+            setOrderingKey(userLiveEvent.getId());
+            setOwners(userLiveEvent, userLiveEvent.getContainer());
             mUserLiveEvent = userLiveEvent;
             mDescription = description;
             return this;
@@ -1151,16 +1425,15 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                     return;
                 }
 
-                String data = readHttpStream(request, "failure");
-                if (null == data) {
+                JSONObject jsonObject = readHttpJson(request, "failure");
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
                 if (DEBUG) {
-                    Log.d(TAG, "onSuccess : " + data);
+                    Log.d(TAG, "onSuccess : " + jsonObject);
                 }
 
-                JSONObject jsonObject = new JSONObject(data);
                 int status = jsonObject.optInt("status", VR.Result.STATUS_SERVER_RESPONSE_NO_STATUS_CODE);;
 
                 dispatchFailure(status);
@@ -1179,6 +1452,16 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
             public WorkItemUpdateLiveEvent newInstance(APIClientImpl apiClient) {
                 return new WorkItemUpdateLiveEvent(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.INTERACTIVE;
+            }
+
+            @Override
+            public String getName() {
+                return "UpdateLiveEvent";
+            }
         };
 
         WorkItemUpdateLiveEvent(APIClientImpl apiClient) {
@@ -1197,6 +1480,8 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                                                  VR.Result.SimpleCallback callback,
                                                  Handler handler, Object closure) {
             super.set(callback, handler, closure);
+            setOrderingKey(userLiveEvent.getId());
+            setOwners(userLiveEvent, userLiveEvent.getContainer());
             mUserLiveEvent = userLiveEvent;
             mTitle = title;
             mDescription = description;
@@ -1266,16 +1551,15 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                     return;
                 }
 
-                String data = readHttpStream(request, "failure");
-                if (null == data) {
+                JSONObject jsonObject = readHttpJson(request, "failure");
+                if (null == jsonObject) {
                     dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
                     return;
                 }
                 if (DEBUG) {
-                    Log.d(TAG, "onSuccess : " + data);
+                    Log.d(TAG, "onSuccess : " + jsonObject);
                 }
 
-                JSONObject jsonObject = new JSONObject(data);
                 int status = jsonObject.optInt("status", VR.Result.STATUS_SERVER_RESPONSE_NO_STATUS_CODE);;
 
                 dispatchFailure(status);
@@ -1287,17 +1571,26 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
     }
 
 
+    /*
+     * Takes the digest of the payload as it is provided, leaving out any chunk framing
+     */
+
     static class DigestStream extends ClientWorkItem.HttpUploadStream {
 
         protected final long mTotalBytes;
+        private final MessageDigest mDigest;
 
-        DigestStream(InputStream inner, long total, byte[] ioBuf) {
+        DigestStream(InputStream inner, long total, byte[] ioBuf, MessageDigest digest) {
             super(inner, ioBuf, total <= 0);
             mTotalBytes = total;
+            mDigest = digest;
         }
 
         @Override
         protected void onBytesProvided(byte[] data, int offset, int len) {
+            if (null != mDigest) {
+                mDigest.update(data, offset, len);
+            }
         }
     }
 
@@ -1323,26 +1616,50 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
             public UserLiveEventImpl.WorkItemNewSegmentUploadAsBytes newInstance(APIClientImpl apiClient) {
                 return new UserLiveEventImpl.WorkItemNewSegmentUploadAsBytes(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.INTERACTIVE;
+            }
+
+            @Override
+            public String getName() {
+                return VR.UPLOAD_TYPE_LIVE_SEGMENT;
+            }
         };
 
         WorkItemNewSegmentUploadAsBytes(APIClientImpl apiClient) {
             super(apiClient, TYPE);
         }
 
+        /*
+         * Exactly one of the sources is set.  Neither the descriptor nor the stream is
+         * closed here, the application gets them back with the callback.
+         */
+
         private byte[] mSource;
+        private ParcelFileDescriptor mSourceFd;
+        private InputStream mSourceStream;
+        private long mSourceLength;
         private UserLiveEventImpl mUserLiveEvent;
         private String mSegmentId;
         private String mUploadUrl;
 
 
         UserLiveEventImpl.WorkItemNewSegmentUploadAsBytes set(UserLiveEventImpl userLiveEvent, String segmentId,
-            byte[] source, UserLiveEvent.Result.UploadSegmentAsBytes callback, Handler handler,
-            Object closure) {
+            byte[] source, ParcelFileDescriptor sourceFd, InputStream sourceStream,
+            long sourceLength, UserLiveEvent.Result.UploadSegmentAsBytes callback,
+            Handler handler, Object closure) {
 
             super.set(callback, handler, closure);
+            setOrderingKey(userLiveEvent.getId());
+            setOwners(userLiveEvent, userLiveEvent.getContainer());
             mSegmentId = segmentId;
             mUserLiveEvent = userLiveEvent;
             mSource = source;
+            mSourceFd = sourceFd;
+            mSourceStream = sourceStream;
+            mSourceLength = sourceLength;
             return this;
         }
 
@@ -1350,6 +1667,18 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
         protected synchronized void recycle() {
             super.recycle();
             mSource = null;
+            mSourceFd = null;
+            mSourceStream = null;
+        }
+
+        /*
+         * Only a byte array source is held in memory while waiting, the others are read
+         * as they are sent
+         */
+
+        @Override
+        protected long getPayloadSize() {
+            return (null != mSource) ? mSource.length : 0;
         }
 
         private static final String TAG = Util.getLogTag(UserImpl.WorkItemNewVideoUpload.class);
@@ -1357,8 +1686,8 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
 
         private class MyDigestStream extends UserLiveEventImpl.DigestStream {
 
-            private MyDigestStream(InputStream inner, long total) {
-                super(inner, total, mIOBuf);
+            private MyDigestStream(InputStream inner, long total, MessageDigest digest) {
+                super(inner, total, mIOBuf, digest);
             }
 
             @Override
@@ -1368,8 +1697,36 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
 
             @Override
             protected void onProgress(long providedSoFar, boolean isEOF) {
-                dispatchUncounted(new ProgressCallbackNotifier(providedSoFar, mTotalBytes).setNoLock(mCallbackHolder));
+                dispatchProgress(providedSoFar, mTotalBytes);
+            }
+
+            @Override
+            protected void throttle(int len) throws IOException {
+                throttleUpload(len);
+            }
+        }
+
+        /*
+         * The descriptor is read by positional reads, so that its file pointer stays where the
+         * application left it.  The stream is read up to the length given with it.
+         */
+
+        private InputStream newSourceStream() {
+            if (null != mSource) {
+                return new ByteArrayInputStream(mSource);
             }
+            if (null != mSourceFd) {
+                FileChannel channel = new FileInputStream(mSourceFd.getFileDescriptor()).getChannel();
+                return new FileRangeStream(channel, 0, mSourceLength);
+            }
+            SplitStream bounded = new SplitStream(mSourceStream, mSourceLength, mSourceLength) {
+                @Override
+                protected boolean canContinue() {
+                    return !isCancelled();
+                }
+            };
+            bounded.renew();
+            return bounded;
         }
 
         @Override
@@ -1380,12 +1737,36 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
             try {
 
                 long now = SystemClock.elapsedRealtime();
+                if (mUserLiveEvent.shouldDropSegment(mSegmentId, getClosure(),
+                        now - getEnqueueTime())) {
+                    dispatchFailure(UserLiveEvent.Result.UploadSegmentAsBytes.STATUS_SEGMENT_DROPPED);
+                    return;
+                }
+                MessageDigest digest = null;
+                if (isVerifyingUploads()) {
+                    digest = newMD5Digest();
+                    if (null == digest) {
+                        dispatchFailure(UserLiveEvent.Result.UploadSegmentAsBytes.STATUS_SEGMENT_NO_MD5_IMPL);
+                        return;
+                    }
+                }
                 {
                     User user = mUserLiveEvent.getUser();
-                    byte[] source = mSource;
-                    long length = source.length;
+                    long length = mSourceLength;
+
+                    /*
+                     * A byte array is already in memory, so its digest goes with the request
+                     * as Content-MD5 and the server checks it.  The other sources are read
+                     * once, as they are sent, and are checked against the ETag afterwards.
+                     */
+
+                    String contentMD5 = null;
+                    if (null != digest && null != mSource) {
+                        contentMD5 = toContentMD5(digest.digest(mSource));
+                        digest = null;
+                    }
 
-                    ByteArrayInputStream buf = new ByteArrayInputStream(source);
+                    InputStream buf = newSourceStream();
                     HttpPlugin.PutRequest uploadRequest = null;
                     try {
                         String content_type = "video/MP2T";
@@ -1407,6 +1788,12 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                         };
 
                         headers0[0] = new String[] {HEADER_CONTENT_LENGTH, String.valueOf(length)};
+                        if (null != contentMD5) {
+                            headers0 = new String[][] {
+                                    headers0[0], headers0[1], headers0[2], headers0[3],
+                                    {HEADER_CONTENT_MD5, contentMD5},
+                            };
+                        }
 
                         String upload_url = this.mUserLiveEvent.getProducerUrl() +
                                 "/" +
@@ -1414,7 +1801,7 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                                 "_" +
                                 System.currentTimeMillis() / 1000 +
                                 "_" +
-                                mUserLiveEvent.mSegmentId +
+                                mSegmentId +
                                 postfix;
                         uploadRequest = newRequest(upload_url, HttpMethod.PUT, headers0);
                         if (null == uploadRequest) {
@@ -1422,7 +1809,7 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
                             return;
                         }
 
-                        MyDigestStream digestStream = new MyDigestStream(buf, length);
+                        MyDigestStream digestStream = new MyDigestStream(buf, length, digest);
                         try {
                             writeHttpStream(uploadRequest, digestStream);
                         } catch (Exception ex) {
@@ -1436,7 +1823,8 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
 
                         int rsp2 = getResponseCode(uploadRequest);
 
-                        if (!isHTTPSuccess(rsp2)) {
+                        if (!isHTTPSuccess(rsp2) ||
+                                (null != digest && !matchesETag(uploadRequest, digest.digest()))) {
                             dispatchFailure(UserLiveEvent.Result.UploadSegmentAsBytes.STATUS_SEGMENT_UPLOAD_FAILED);
                             return;
                         }
@@ -1451,7 +1839,7 @@ class UserLiveEventImpl extends Contained.BaseImpl<UserImpl> implements UserLive
 
                     } finally {
                         destroy(uploadRequest);
-                        if (null != buf) {
+                        if (null != mSource) {
                             buf.close();
                         }
                     }
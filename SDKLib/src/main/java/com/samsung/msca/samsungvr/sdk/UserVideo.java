@@ -304,6 +304,16 @@ public interface UserVideo {
 
     boolean cancelUpload(Object closure);
 
+    /**
+     * Forget a failed or interrupted upload that will not be retried, for example one
+     * returned by User.getInterruptedUploads, and remove it from the upload journal.
+     *
+     * @return true if the upload was discarded, false if it is in progress or there is
+     * nothing to discard
+     */
+
+    boolean discardUpload();
+
     /**
      * Retry a failed upload. The params are similar to those of User.uploadVideo. No check is
      * made to ensure that the parcel file descriptor points to the same file as the failed
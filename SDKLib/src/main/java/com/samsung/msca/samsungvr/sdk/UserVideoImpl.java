@@ -24,18 +24,27 @@ package com.samsung.msca.samsungvr.sdk;
 
 import android.os.Handler;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.json.JSONObject;
 
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 class UserVideoImpl implements UserVideo {
 
@@ -100,10 +109,35 @@ class UserVideoImpl implements UserVideo {
         synchronized (this) {
             if (chunk >= 0 && chunk < mNumChunks) {
                 mLastSuccessfulChunk = chunk;
+                UploadJournal journal = getUploadJournal();
+                if (null != journal) {
+                    journal.append(mVideoId, chunk);
+                }
             }
         }
     }
 
+    private UploadJournal getUploadJournal() {
+        return mUser.getContainer().getUploadJournal();
+    }
+
+    /*
+     * A video whose upload was interrupted in an earlier run of the application, ready for
+     * retryUpload
+     */
+
+    static UserVideoImpl restore(UserImpl user, UploadJournal.Entry entry) {
+        UserVideoImpl result = new UserVideoImpl(user, entry.mVideoId, entry.mTitle,
+                entry.mDescription, new ArrayList<String>(), entry.mPermission);
+        synchronized (result) {
+            result.mUploadId = entry.mUploadId;
+            result.mChunkSize = entry.mChunkSize;
+            result.mNumChunks = entry.mNumChunks;
+            result.mLastSuccessfulChunk = entry.mLastSuccessfulChunk;
+        }
+        return result;
+    }
+
     boolean uploadContent(AtomicBoolean cancelHolder, ParcelFileDescriptor source, String initialSignedUrl,
                           String uploadId, long chunkSize, int numChunks,
                           ResultCallbackHolder callbackHolder) {
@@ -115,6 +149,11 @@ class UserVideoImpl implements UserVideo {
             mUploadId = uploadId;
             mChunkSize = chunkSize;
             mNumChunks = numChunks;
+            UploadJournal journal = getUploadJournal();
+            if (null != journal) {
+                journal.create(new UploadJournal.Entry(mUser.getUserId(), mVideoId, uploadId,
+                        mTitle, mDesc, mPermission, chunkSize, numChunks, mLastSuccessfulChunk));
+            }
             return retryUploadNoLock(cancelHolder, source, (User.Result.UploadVideo)callbackHolder.getCallbackNoLock(),
                     callbackHolder.getHandlerNoLock(), callbackHolder.getClosureNoLock());
         }
@@ -125,9 +164,24 @@ class UserVideoImpl implements UserVideo {
             mInitialSignedUrl = null;
             mUploadId = null;
             mUploading = false;
+            UploadJournal journal = getUploadJournal();
+            if (null != journal) {
+                journal.remove(mVideoId);
+            }
         }
     }
 
+    @Override
+    public boolean discardUpload() {
+        synchronized (this) {
+            if (mUploading || null == mUploadId) {
+                return false;
+            }
+        }
+        onUploadComplete();
+        return true;
+    }
+
     @Override
     public boolean cancelUpload(Object closure) {
         if (DEBUG) {
@@ -167,7 +221,14 @@ class UserVideoImpl implements UserVideo {
 
     private boolean retryUploadNoLock(AtomicBoolean cancelHolder, ParcelFileDescriptor source,
                                       User.Result.UploadVideo callback, Handler handler, Object closure) {
-        if (null == mVideoId || null == mUploadId || null == mInitialSignedUrl) {
+        if (null == mVideoId || null == mUploadId) {
+            return false;
+        }
+        if (null == mInitialSignedUrl && mLastSuccessfulChunk < 0) {
+            /*
+             * Restored from the journal, the first chunk has no URL other than the one
+             * handed out when the upload was created
+             */
             return false;
         }
         AsyncWorkQueue<ClientWorkItemType, ClientWorkItem<?>> workQueue =
@@ -208,6 +269,16 @@ class UserVideoImpl implements UserVideo {
             public WorkItemVideoContentUpload newInstance(APIClientImpl apiClient) {
                 return new WorkItemVideoContentUpload(apiClient);
             }
+
+            @Override
+            public VR.Priority getPriority() {
+                return VR.Priority.BULK;
+            }
+
+            @Override
+            public String getName() {
+                return VR.UPLOAD_TYPE_VIDEO;
+            }
         };
 
         WorkItemVideoContentUpload(APIClientImpl apiClient) {
@@ -227,6 +298,8 @@ class UserVideoImpl implements UserVideo {
             int lastSuccessfulChunk, User.Result.UploadVideo callback, Handler handler, Object closure) {
 
             super.set(cancelHolder, callback, handler, closure);
+            setOrderingKey(videoId);
+            setOwners(video, user);
             mVideo = video;
             mUser = user;
             mLastSuccessfulChunk = lastSuccessfulChunk;
@@ -252,9 +325,45 @@ class UserVideoImpl implements UserVideo {
 
         private static final String TAG = Util.getLogTag(WorkItemVideoContentUpload.class);
 
+        /*
+         * Ends an upload with the given status, thrown from the chunk uploaders so that the
+         * status is dispatched once, on the worker thread.  Retryable if the same request
+         * may well succeed when made again.
+         */
+
+        private static class UploadFailure extends Exception {
+
+            private final int mStatus;
+            private final boolean mRetryable;
+
+            UploadFailure(int status) {
+                this(status, false);
+            }
+
+            UploadFailure(int status, boolean retryable) {
+                mStatus = status;
+                mRetryable = retryable;
+            }
+        }
+
+        private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+        private static boolean isRetryableResponse(int responseCode) {
+            return responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR ||
+                    HttpURLConnection.HTTP_CLIENT_TIMEOUT == responseCode ||
+                    HTTP_TOO_MANY_REQUESTS == responseCode;
+        }
+
+        private static boolean isRetryable(Exception ex) {
+            if (ex instanceof UploadFailure) {
+                return ((UploadFailure)ex).mRetryable;
+            }
+            return ex instanceof IOException;
+        }
+
         private String nextChunkUploadUrl(String userId, String videoId, String uploadId,
-                                        String headers[][], int chunkId, boolean readData)
-                    throws Exception {
+                                        String headers[][], int chunkId, boolean readData,
+                                        byte[] buf) throws Exception {
 
             HttpPlugin.GetRequest nextRequest = null;
 
@@ -266,29 +375,28 @@ class UserVideoImpl implements UserVideo {
                 }
                 nextRequest = newGetRequest(url, headers);
                 if (null == nextRequest) {
-                    dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_NULL_CONNECTION);
-                    return null;
+                    throw new UploadFailure(VR.Result.STATUS_HTTP_PLUGIN_NULL_CONNECTION);
                 }
                 int rsp3 = getResponseCode(nextRequest);
 
                 if (!isHTTPSuccess(rsp3)) {
-                    dispatchFailure(User.Result.UploadVideo.STATUS_SIGNED_URL_QUERY_FAILED);
-                    return null;
+                    throw new UploadFailure(User.Result.UploadVideo.STATUS_SIGNED_URL_QUERY_FAILED,
+                            isRetryableResponse(rsp3));
                 }
                 if (!readData) {
                     return null;
                 }
 
-                String data3 = readHttpStream(nextRequest, "code: " + rsp3);
-                if (null == data3) {
-                    dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE);
-                    return null;
+                JSONObject jsonObject2 = readHttpJson(nextRequest, buf, "code: " + rsp3);
+                if (null == jsonObject2) {
+                    if (isCancelled()) {
+                        return null;
+                    }
+                    throw new UploadFailure(VR.Result.STATUS_HTTP_PLUGIN_STREAM_READ_FAILURE, true);
                 }
-                JSONObject jsonObject2 = new JSONObject(data3);
                 String signedUrl = jsonObject2.optString("signed_url", null);
                 if (null == signedUrl) {
-                    dispatchFailure(User.Result.UploadVideo.STATUS_SIGNED_URL_QUERY_FAILED);
-                    return null;
+                    throw new UploadFailure(User.Result.UploadVideo.STATUS_SIGNED_URL_QUERY_FAILED);
                 }
                 return signedUrl;
             } finally {
@@ -297,6 +405,675 @@ class UserVideoImpl implements UserVideo {
 
         }
 
+        /*
+         * One run of the upload.  Uploaders take chunks in order and upload them side by
+         * side, each reading its chunk straight from the file.  A chunk only counts towards
+         * progress and retryUpload() once all chunks before it are uploaded as well.  The
+         * first failure stops all uploaders.
+         *
+         * With a look-ahead, the URLs of all chunks but the first are resolved in order by a
+         * prefetcher, up to look-ahead chunks past the last one taken by an uploader, and
+         * uploaders wait for theirs.  A URL that got too old while waiting, or that the
+         * server rejects as forbidden, is resolved again by the uploader.
+         */
+
+        private static final long PREFETCH_POLL_MS = 100;
+        private static final int PREFETCH_BUF_SIZE = 8192;
+
+        /*
+         * Left by the prefetcher in place of a URL it failed to resolve, the uploader then
+         * resolves it, with retries
+         */
+
+        private static final String RESOLVE_INLINE = new String();
+
+        /*
+         * Progress is counted in bytes as the uploaders read them, and posted as
+         * ProgressThrottle allows, at most once per PROGRESS_INTERVAL_MS.  The send rate is an
+         * exponentially weighted moving average of the rate over each interval, the time
+         * left is extrapolated from it.  Reports on start, on a chunk completing and at the
+         * end always go out.
+         */
+
+        private static final long PROGRESS_INTERVAL_MS = 500;
+
+        /*
+         * Before taking its next chunk an uploader waits for live segments being sent to
+         * go out first, but no longer than this, so that a steady live stream does not stop
+         * the video altogether
+         */
+
+        private static final long SEGMENT_YIELD_MAX_MS = 2000;
+        private static final double RATE_WEIGHT = 0.25;
+
+        private class ChunkedUpload {
+
+            private final FileChannel mChannel;
+            private final UserVideoImpl mVideo;
+            private final String mUserId, mVideoId, mUploadId, mInitialSignedUrl;
+            private final String mHeaders0[][];
+            private final long mFileLength, mChunkSize;
+            private final int mNumChunks;
+            private final AtomicInteger mNextChunk;
+            private final boolean[] mCompleted;
+            private int mLastContiguousChunk, mReportedChunks = -1;
+
+            private volatile boolean mAborted = false;
+            private int mFailureStatus;
+            private Exception mFailure;
+
+            private final boolean mMapChunks;
+            private final int mLookAhead;
+            private final long mUrlMaxAge;
+            private final String[] mSignedUrls;
+            private final long[] mSignedUrlTimes;
+            private int mNextPrefetch;
+            private volatile UploadHelper mPrefetcher;
+
+            private final AtomicInteger mRetriesLeft;
+            private final long mRetryBackoff, mMaxRetryBackoff;
+
+            private final AtomicLong mBytesSent;
+            private final ProgressThrottle mProgressThrottle =
+                    new ProgressThrottle(PROGRESS_INTERVAL_MS);
+            private long mRateSampleTime, mRateSampleBytes;
+            private double mBytesPerSecond = -1.0;
+
+            ChunkedUpload(FileChannel channel, UserVideoImpl video, String userId, String videoId,
+                          String uploadId, String initialSignedUrl, String headers0[][],
+                          long length, long chunkSize, int numChunks, int lastSuccessfulChunk) {
+                mChannel = channel;
+                mVideo = video;
+                mUserId = userId;
+                mVideoId = videoId;
+                mUploadId = uploadId;
+                mInitialSignedUrl = initialSignedUrl;
+                mHeaders0 = headers0;
+                mFileLength = length;
+                mChunkSize = chunkSize;
+                mNumChunks = numChunks;
+                mNextChunk = new AtomicInteger(lastSuccessfulChunk + 1);
+                mCompleted = new boolean[numChunks];
+                mLastContiguousChunk = lastSuccessfulChunk;
+                mMapChunks = mAPIClient.shouldMapVideoUploadChunks();
+                mLookAhead = mAPIClient.getVideoUploadUrlLookAhead();
+                mUrlMaxAge = mAPIClient.getVideoUploadUrlMaxAge();
+                mSignedUrls = (mLookAhead > 0) ? new String[numChunks] : null;
+                mSignedUrlTimes = (mLookAhead > 0) ? new long[numChunks] : null;
+                mNextPrefetch = Math.max(1, lastSuccessfulChunk + 1);
+                mRetriesLeft = new AtomicInteger(mAPIClient.getVideoUploadRetryBudget());
+                mRetryBackoff = mAPIClient.getVideoUploadRetryBackoff();
+                mMaxRetryBackoff = mAPIClient.getVideoUploadMaxRetryBackoff();
+                mBytesSent = new AtomicLong(Math.min(length,
+                        ((long)(lastSuccessfulChunk + 1)) * chunkSize));
+                mRateSampleTime = SystemClock.elapsedRealtime();
+                mRateSampleBytes = mBytesSent.get();
+            }
+
+            private void onBytesSent(long len) {
+                long sent = mBytesSent.addAndGet(len);
+                if (len < 1) {
+                    return;
+                }
+                reportTransfer(sent, false);
+            }
+
+            void reportTransfer() {
+                reportTransfer(mBytesSent.get(), true);
+            }
+
+            private void reportTransfer(long sent, boolean force) {
+                long now = SystemClock.elapsedRealtime();
+                if (mProgressThrottle.shouldReport(sent, mFileLength, now, force)) {
+                    postTransfer(sent, now);
+                }
+            }
+
+            private synchronized void postTransfer(long sent, long now) {
+                long elapsed = now - mRateSampleTime;
+                if (elapsed >= PROGRESS_INTERVAL_MS) {
+                    double rate = Math.max(0, sent - mRateSampleBytes) * 1000.0 / elapsed;
+                    mBytesPerSecond = (mBytesPerSecond < 0.0) ? rate :
+                            RATE_WEIGHT * rate + (1.0 - RATE_WEIGHT) * mBytesPerSecond;
+                    mRateSampleTime = now;
+                    mRateSampleBytes = sent;
+                }
+                long eta = -1;
+                if (sent >= mFileLength) {
+                    eta = 0;
+                } else if (mBytesPerSecond > 0.0) {
+                    eta = (long)((mFileLength - sent) * 1000.0 / mBytesPerSecond);
+                }
+                int chunks = mLastContiguousChunk + 1;
+                boolean chunksChanged = (chunks != mReportedChunks);
+                mReportedChunks = chunks;
+                dispatchUncounted(new TransferProgressCallbackNotifier(chunks, mNumChunks,
+                        chunksChanged, sent, mFileLength, (long)mBytesPerSecond, eta)
+                        .setNoLock(mCallbackHolder));
+            }
+
+            boolean hasPrefetcher() {
+                return mLookAhead > 0 && mNextPrefetch < mNumChunks;
+            }
+
+            private String fetchSignedUrl(int chunk, byte[] buf) throws Exception {
+                if (0 == chunk) {
+                    return mInitialSignedUrl;
+                }
+                return nextChunkUploadUrl(mUserId, mVideoId, mUploadId, mHeaders0, chunk - 1,
+                        true, buf);
+            }
+
+            private String takeSignedUrl(int chunk, byte[] buf) throws Exception {
+                if (mLookAhead < 1 || 0 == chunk) {
+                    return fetchSignedUrl(chunk, buf);
+                }
+                String signedUrl;
+                long fetchedAt;
+                synchronized (this) {
+                    /*
+                     * Taking a chunk moved the look-ahead window
+                     */
+                    notifyAll();
+                    while (null == mSignedUrls[chunk] && canContinue()) {
+                        wait(PREFETCH_POLL_MS);
+                        if (null == mSignedUrls[chunk] && isPrefetcherAbandoned()) {
+                            break;
+                        }
+                    }
+                    signedUrl = mSignedUrls[chunk];
+                    fetchedAt = mSignedUrlTimes[chunk];
+                    mSignedUrls[chunk] = null;
+                }
+                if (null == signedUrl) {
+                    return canContinue() ? fetchSignedUrl(chunk, buf) : null;
+                }
+                if (RESOLVE_INLINE == signedUrl) {
+                    return fetchSignedUrl(chunk, buf);
+                }
+                if (mUrlMaxAge > 0 && SystemClock.elapsedRealtime() - fetchedAt > mUrlMaxAge) {
+                    if (DEBUG) {
+                        Log.d(TAG, "Prefetched url expired, chunk: " + chunk);
+                    }
+                    return fetchSignedUrl(chunk, buf);
+                }
+                return signedUrl;
+            }
+
+            /*
+             * The prefetcher was given a poll interval to start, if the executor did not get
+             * to it by then uploaders resolve their own URLs
+             */
+
+            private boolean isPrefetcherAbandoned() {
+                UploadHelper prefetcher = mPrefetcher;
+                return null == prefetcher || prefetcher.abandonIfNotStarted();
+            }
+
+            void startPrefetcher(Executor executor) {
+                mPrefetcher = new UploadHelper(newPrefetcher(),
+                        String.format(Locale.US, "VideoUploadPrefetch-%s", mVideoId));
+                mPrefetcher.start(executor);
+            }
+
+            void joinPrefetcher() {
+                UploadHelper prefetcher = mPrefetcher;
+                if (null != prefetcher) {
+                    prefetcher.joinUninterruptibly();
+                }
+            }
+
+            private Runnable newPrefetcher() {
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        byte[] buf = new byte[PREFETCH_BUF_SIZE];
+                        try {
+                            while (true) {
+                                int chunk;
+                                synchronized (ChunkedUpload.this) {
+                                    while (canContinue() && mNextPrefetch < mNumChunks &&
+                                            mNextPrefetch >= mNextChunk.get() + mLookAhead) {
+                                        ChunkedUpload.this.wait(PREFETCH_POLL_MS);
+                                    }
+                                    if (!canContinue() || mNextPrefetch >= mNumChunks) {
+                                        return;
+                                    }
+                                    chunk = mNextPrefetch;
+                                    mNextPrefetch += 1;
+                                }
+                                String signedUrl;
+                                try {
+                                    signedUrl = fetchSignedUrl(chunk, buf);
+                                } catch (Exception ex) {
+                                    if (!isRetryable(ex)) {
+                                        throw ex;
+                                    }
+                                    if (DEBUG) {
+                                        Log.d(TAG, "Url prefetch failed, chunk: " + chunk, ex);
+                                    }
+                                    signedUrl = RESOLVE_INLINE;
+                                }
+                                if (null == signedUrl) {
+                                    return;
+                                }
+                                synchronized (ChunkedUpload.this) {
+                                    mSignedUrls[chunk] = signedUrl;
+                                    mSignedUrlTimes[chunk] = SystemClock.elapsedRealtime();
+                                    ChunkedUpload.this.notifyAll();
+                                }
+                            }
+                        } catch (UploadFailure ex) {
+                            onFailure(ex.mStatus, null);
+                        } catch (Exception ex) {
+                            if (DEBUG) {
+                                Log.d(TAG, "Url prefetch failed, videoId: " + mVideoId, ex);
+                            }
+                            onFailure(0, ex);
+                        }
+                    }
+                };
+            }
+
+            private boolean canContinue() {
+                return !mAborted && !isCancelled();
+            }
+
+            private void yieldToSegments() throws InterruptedException {
+                AsyncWorkQueue<?, ?> segmentQueue = mAPIClient.getAsyncSegmentQueue();
+                long until = SystemClock.elapsedRealtime() + SEGMENT_YIELD_MAX_MS;
+                while (canContinue() && segmentQueue.getNumPending() > 0 &&
+                        SystemClock.elapsedRealtime() < until) {
+                    Thread.sleep(PREFETCH_POLL_MS);
+                }
+            }
+
+            private synchronized void onChunkCompleted(int chunk) {
+                mCompleted[chunk] = true;
+                int last = mLastContiguousChunk;
+                while (last + 1 < mNumChunks && mCompleted[last + 1]) {
+                    last += 1;
+                }
+                if (last == mLastContiguousChunk) {
+                    return;
+                }
+                mLastContiguousChunk = last;
+                mVideo.setLastSuccessfulChunk(last);
+                reportTransfer();
+            }
+
+            private synchronized void onFailure(int status, Exception ex) {
+                if (mAborted) {
+                    return;
+                }
+                mAborted = true;
+                mFailureStatus = status;
+                mFailure = ex;
+            }
+
+            private synchronized boolean isComplete() {
+                return mNumChunks - 1 == mLastContiguousChunk;
+            }
+
+            /*
+             * The bytes of one chunk.  The stream path reads them through a RangeStream that
+             * is opened on first use and rewound for every later send of the chunk.  What a
+             * send counted towards progress is taken back when the chunk is sent again.  When
+             * verifying, the digest of the last complete send is kept for the next one.
+             */
+
+            private class Chunk {
+
+                private final int mIndex;
+                private final long mStart, mLength;
+                private RangeStream mSource;
+                private long mSent;
+                private MessageDigest mDigester;
+                private byte[] mDigest;
+
+                Chunk(int index) {
+                    mIndex = index;
+                    mStart = ((long)index) * mChunkSize;
+                    mLength = Math.max(0, Math.min(mChunkSize, mFileLength - mStart));
+                }
+
+                void onSent(long len) {
+                    mSent += len;
+                    onBytesSent(len);
+                }
+
+                void onRead(byte[] buffer, int byteOffset, int len) throws IOException {
+                    throttleUpload(len);
+                    if (null != mDigester) {
+                        mDigester.update(buffer, byteOffset, len);
+                    }
+                    onSent(len);
+                }
+
+                void unsend() {
+                    if (mSent > 0) {
+                        onBytesSent(-mSent);
+                        mSent = 0;
+                    }
+                }
+
+                RangeStream getSource() {
+                    if (null != mSource) {
+                        mSource.rewind();
+                        return mSource;
+                    }
+                    if (mMapChunks && mLength > 0) {
+                        try {
+                            mSource = new MappedRangeStream(mChannel, mStart, mLength) {
+                                @Override
+                                protected boolean canContinue() {
+                                    return ChunkedUpload.this.canContinue();
+                                }
+
+                                @Override
+                                protected void onRead(byte[] buffer, int byteOffset, int len)
+                                        throws IOException {
+                                    Chunk.this.onRead(buffer, byteOffset, len);
+                                }
+                            };
+                            return mSource;
+                        } catch (IOException ex) {
+                            if (DEBUG) {
+                                Log.d(TAG, "Failed to map chunk: " + mIndex + ", reading it instead", ex);
+                            }
+                        }
+                    }
+                    mSource = new FileRangeStream(mChannel, mStart, mLength) {
+                        @Override
+                        protected boolean canContinue() {
+                            return ChunkedUpload.this.canContinue();
+                        }
+
+                        @Override
+                        protected void onRead(byte[] buffer, int byteOffset, int len)
+                                throws IOException {
+                            Chunk.this.onRead(buffer, byteOffset, len);
+                        }
+                    };
+                    return mSource;
+                }
+            }
+
+            /*
+             * Sends the chunk, retrying retryable failures while the retry budget lasts.  A
+             * retry re-reads only this chunk's range, and resolves its URL again.
+             */
+
+            private boolean uploadChunk(int index, byte[] buf, MessageDigest digest)
+                    throws Exception {
+                Chunk chunk = new Chunk(index);
+                chunk.mDigester = digest;
+                int attempt = 0;
+                while (true) {
+                    try {
+                        return attemptChunk(chunk, attempt > 0, buf);
+                    } catch (Exception ex) {
+                        if (!canContinue() || !isRetryable(ex) ||
+                                mRetriesLeft.getAndDecrement() < 1) {
+                            throw ex;
+                        }
+                        attempt += 1;
+                        long delay = getRetryDelay(attempt);
+                        int status = (ex instanceof UploadFailure) ? ((UploadFailure)ex).mStatus : 0;
+                        if (DEBUG) {
+                            Log.d(TAG, "Retrying chunk: " + index + " attempt: " + attempt +
+                                    " in: " + delay + " status: " + status, ex);
+                        }
+                        dispatchUncounted(new RetryCallbackNotifier(index, attempt, delay, status).setNoLock(mCallbackHolder));
+                        if (!sleep(delay)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+
+            /*
+             * Exponential backoff with equal jitter: a random delay between half of and the
+             * full backoff for this attempt
+             */
+
+            private long getRetryDelay(int attempt) {
+                long backoff = mRetryBackoff;
+                for (int i = 1; i < attempt && backoff < mMaxRetryBackoff; i += 1) {
+                    backoff *= 2;
+                }
+                backoff = Math.min(backoff, mMaxRetryBackoff);
+                return backoff / 2 + (long)(Math.random() * (backoff - backoff / 2));
+            }
+
+            /*
+             * Returns false if the upload was stopped meanwhile
+             */
+
+            private boolean sleep(long delay) throws InterruptedException {
+                long until = SystemClock.elapsedRealtime() + delay;
+                while (canContinue()) {
+                    long remaining = until - SystemClock.elapsedRealtime();
+                    if (remaining <= 0) {
+                        return true;
+                    }
+                    Thread.sleep(Math.min(remaining, PREFETCH_POLL_MS));
+                }
+                return false;
+            }
+
+            private boolean attemptChunk(Chunk chunk, boolean isRetry, byte[] buf)
+                    throws Exception {
+                int index = chunk.mIndex;
+                String signedUrl = isRetry ? fetchSignedUrl(index, buf) : takeSignedUrl(index, buf);
+                if (null == signedUrl || !canContinue()) {
+                    return false;
+                }
+                int rsp2 = putChunk(chunk, signedUrl, buf);
+                if (HttpURLConnection.HTTP_FORBIDDEN == rsp2 && mLookAhead > 0 && index > 0) {
+                    if (DEBUG) {
+                        Log.d(TAG, "Prefetched url rejected, chunk: " + index);
+                    }
+                    signedUrl = fetchSignedUrl(index, buf);
+                    if (null == signedUrl || !canContinue()) {
+                        return false;
+                    }
+                    rsp2 = putChunk(chunk, signedUrl, buf);
+                }
+                if (rsp2 < 0) {
+                    return false;
+                }
+                if (!isHTTPSuccess(rsp2)) {
+                    throw new UploadFailure(User.Result.UploadVideo.STATUS_CHUNK_UPLOAD_FAILED,
+                            isRetryableResponse(rsp2));
+                }
+                return true;
+            }
+
+            /*
+             * Returns the response code, or -1 if the upload was stopped meanwhile
+             */
+
+            private int putChunk(Chunk chunk, String signedUrl, byte[] buf) throws Exception {
+                if (DEBUG) {
+                    Log.d(TAG, "Uploading chunk: " + chunk.mIndex + " url: " + signedUrl);
+                }
+                String headers2[][] = {
+                        {HEADER_CONTENT_LENGTH, String.valueOf(chunk.mLength)},
+                        {HEADER_CONTENT_TYPE, "application/octet-stream"},
+                        {HEADER_CONTENT_TRANSFER_ENCODING, "binary"},
+                };
+                if (null != chunk.mDigest) {
+                    headers2 = new String[][] {
+                            headers2[0], headers2[1], headers2[2],
+                            {HEADER_CONTENT_MD5, toContentMD5(chunk.mDigest)},
+                    };
+                }
+                if (null != chunk.mDigester) {
+                    chunk.mDigester.reset();
+                }
+
+                chunk.unsend();
+                HttpPlugin.PutRequest uploadRequest = null;
+                try {
+                    uploadRequest = newRequest(signedUrl, HttpMethod.PUT, headers2);
+                    if (null == uploadRequest) {
+                        throw new UploadFailure(VR.Result.STATUS_HTTP_PLUGIN_NULL_CONNECTION);
+                    }
+                    if (writeHttpChannel(uploadRequest, null, mChannel, chunk.mStart, chunk.mLength,
+                            null, buf)) {
+                        /*
+                         * The plugin does not report how far it got, count the chunk at once
+                         */
+                        chunk.onSent(chunk.mLength);
+                        if (!canContinue()) {
+                            return -1;
+                        }
+                        return getResponseCode(uploadRequest);
+                    }
+                    RangeStream range = chunk.getSource();
+                    writeHttpStream(uploadRequest, range, buf);
+                    if (!canContinue()) {
+                        return -1;
+                    }
+                    if (range.availableAsLong() > 0) {
+                        throw new UploadFailure(User.Result.UploadVideo.STATUS_FILE_MODIFIED_AFTER_UPLOAD_REQUEST);
+                    }
+                    int rsp = getResponseCode(uploadRequest);
+                    if (null != chunk.mDigester) {
+                        verifyChunk(chunk, uploadRequest, rsp);
+                    }
+                    return rsp;
+                } finally {
+                    destroy(uploadRequest);
+                }
+            }
+
+            private void verifyChunk(Chunk chunk, HttpPlugin.PutRequest request, int rsp)
+                    throws Exception {
+                byte[] sent = chunk.mDigester.digest();
+                if (null != chunk.mDigest && !Arrays.equals(sent, chunk.mDigest)) {
+                    throw new UploadFailure(User.Result.UploadVideo.STATUS_FILE_MODIFIED_AFTER_UPLOAD_REQUEST);
+                }
+                chunk.mDigest = sent;
+                if (isHTTPSuccess(rsp) && !matchesETag(request, sent)) {
+                    if (DEBUG) {
+                        Log.d(TAG, "Chunk stored corrupted, chunk: " + chunk.mIndex);
+                    }
+                    throw new UploadFailure(User.Result.UploadVideo.STATUS_CHUNK_UPLOAD_FAILED, true);
+                }
+            }
+
+            Runnable newUploader(final byte[] buf) {
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        MessageDigest digest = isVerifyingUploads() ? newMD5Digest() : null;
+                        try {
+                            while (canContinue()) {
+                                yieldToSegments();
+                                if (!canContinue()) {
+                                    break;
+                                }
+                                int chunk = mNextChunk.getAndIncrement();
+                                if (chunk >= mNumChunks || !uploadChunk(chunk, buf, digest)) {
+                                    break;
+                                }
+                                onChunkCompleted(chunk);
+                            }
+                        } catch (UploadFailure ex) {
+                            onFailure(ex.mStatus, null);
+                        } catch (Exception ex) {
+                            if (DEBUG) {
+                                Log.d(TAG, "Chunk upload failed, videoId: " + mVideoId, ex);
+                            }
+                            onFailure(0, ex);
+                        }
+                    }
+                };
+            }
+        }
+
+        /*
+         * Work of one upload beside that of the uploader running on the worker itself.  It
+         * runs on the application's executor when there is one, or else on a daemon thread
+         * of its own.  A helper the executor has not started by the time the upload stops
+         * waiting for it is abandoned, so an executor with no thread to spare never holds up
+         * the worker, the upload just goes on with fewer helpers.
+         */
+
+        private static class UploadHelper implements Runnable {
+
+            private static final int NEW = 0, RUNNING = 1, DONE = 2, ABANDONED = 3;
+
+            private final Runnable mTask;
+            private final String mName;
+            private final AtomicInteger mState = new AtomicInteger(NEW);
+
+            UploadHelper(Runnable task, String name) {
+                mTask = task;
+                mName = name;
+            }
+
+            void start(Executor executor) {
+                if (null != executor) {
+                    try {
+                        executor.execute(this);
+                    } catch (RejectedExecutionException ex) {
+                        if (DEBUG) {
+                            Log.d(TAG, "Executor rejected upload helper " + mName, ex);
+                        }
+                        mState.compareAndSet(NEW, ABANDONED);
+                    }
+                    return;
+                }
+                Thread thread = new Thread(this, mName);
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            @Override
+            public void run() {
+                if (!mState.compareAndSet(NEW, RUNNING)) {
+                    return;
+                }
+                try {
+                    mTask.run();
+                } finally {
+                    synchronized (this) {
+                        mState.set(DONE);
+                        notifyAll();
+                    }
+                }
+            }
+
+            /*
+             * True if the helper never ran and now never will
+             */
+
+            boolean abandonIfNotStarted() {
+                mState.compareAndSet(NEW, ABANDONED);
+                return ABANDONED == mState.get();
+            }
+
+            void joinUninterruptibly() {
+                abandonIfNotStarted();
+                boolean interrupted = false;
+                synchronized (this) {
+                    while (RUNNING == mState.get()) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ex) {
+                            interrupted = true;
+                        }
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
         @Override
         public void onRun() throws Exception {
 
@@ -330,112 +1107,78 @@ class UserVideoImpl implements UserVideo {
                 return;
             }
 
+            int numConnections = Math.max(1, Math.min(mAPIClient.getNumVideoUploadConnections(),
+                    numChunks - currentChunk));
+
             if (DEBUG) {
                 Log.d(TAG, "Uploading content for videoId: " + videoId + " uploadId: " + uploadId +
                         " chunkSize: " + chunkSize + " numChunks: " + numChunks +
                         " lastSuccessfulChunk: " + lastSuccessfulChunk + " length: " + length +
-                        " currentPos: " + filePos + " remaining: " + remaining);
+                        " currentPos: " + filePos + " remaining: " + remaining +
+                        " connections: " + numConnections);
             }
 
             FileInputStream buf = null;
+            List<UploadHelper> uploaders = new ArrayList<>();
 
             try {
 
                 buf = new FileInputStream(source.getFileDescriptor());
-                FileChannel channel = buf.getChannel();
-                channel.position(filePos);
-
-                SplitStream split = new SplitStream(buf, remaining, chunkSize) {
-                    @Override
-                    protected boolean canContinue() {
-                        return !isCancelled();
-                    }
-                };
-
-                String headers2[][] = {
-                        /*
-                         * Content length must be the first header. Index 0 is used to set the
-                         * real length later
-                         */
-                        {HEADER_CONTENT_LENGTH, "0"},
-                        {HEADER_CONTENT_TYPE, "application/octet-stream"},
-                        {HEADER_CONTENT_TRANSFER_ENCODING, "binary"},
-
-                };
+                ChunkedUpload upload = new ChunkedUpload(buf.getChannel(), video,
+                        user.getUserId(), videoId, uploadId, mInitialSignedUrl, headers0,
+                        length, chunkSize, numChunks, lastSuccessfulChunk);
 
-                for (int i = currentChunk; i < numChunks; i++) {
+                upload.reportTransfer();
 
-                    if (isCancelled()) {
-                        dispatchCancelled();
-                        return;
+                try {
+                    if (upload.hasPrefetcher()) {
+                        upload.startPrefetcher(mAPIClient.getExecutor());
                     }
-
-                    dispatchUncounted(new ProgressCallbackNotifier(i, numChunks).setNoLock(mCallbackHolder));
-
-                    String signedUrl;
-
-                    if (i == 0) {
-
-                        signedUrl = mInitialSignedUrl;
-
-                    } else {
-                        signedUrl = nextChunkUploadUrl(user.getUserId(), videoId, uploadId,
-                                headers0, i - 1, true);
-                        if (null == signedUrl) {
-                            return;
-                        }
-                    }
-
-                    if (DEBUG) {
-                        Log.d(TAG, "Uploading chunk: " + i + " url: " + signedUrl);
+                    for (int i = 1; i < numConnections; i += 1) {
+                        UploadHelper uploader = new UploadHelper(
+                                upload.newUploader(new byte[mIOBuf.length]),
+                                String.format(Locale.US, "VideoUpload-%s-%d", videoId, i));
+                        uploaders.add(uploader);
+                        uploader.start(mAPIClient.getExecutor());
                     }
-                    if (isCancelled()) {
-                        dispatchCancelled();
-                        return;
+                    upload.newUploader(mIOBuf).run();
+                } finally {
+                    /*
+                     * Uploaders use this item, it must not be recycled while any of them runs
+                     */
+                    for (UploadHelper uploader : uploaders) {
+                        uploader.joinUninterruptibly();
                     }
+                    upload.joinPrefetcher();
+                }
 
-                    HttpPlugin.PutRequest uploadRequest = null;
-
-                    try {
-                        split.renew();
-                        headers2[0][1] = String.valueOf(split.availableAsLong());
-
-                        uploadRequest = newRequest(signedUrl, HttpMethod.PUT, headers2);
-                        if (null == uploadRequest) {
-                            dispatchFailure(VR.Result.STATUS_HTTP_PLUGIN_NULL_CONNECTION);
-                            return;
-                        }
-                        try {
-                            writeHttpStream(uploadRequest, split);
-                        } catch (Exception ex) {
-                            if (isCancelled()) {
-                                dispatchCancelled();
-                                return;
-                            }
-                            throw ex;
-                        }
-
-                        int rsp2 = getResponseCode(uploadRequest);
-
-                        if (!isHTTPSuccess(rsp2)) {
-                            dispatchFailure(User.Result.UploadVideo.STATUS_CHUNK_UPLOAD_FAILED);
-                            return;
-                        }
-
-                        video.setLastSuccessfulChunk(i);
-
-                    } finally {
-                        destroy(uploadRequest);
-                    }
+                if (isCancelled()) {
+                    dispatchCancelled();
+                    return;
                 }
-                if (DEBUG) {
-                    Log.d(TAG, "After successful upload, bytes remaining: " + split.availableAsLong());
+                if (null != upload.mFailure) {
+                    throw upload.mFailure;
+                }
+                if (0 != upload.mFailureStatus) {
+                    dispatchFailure(upload.mFailureStatus);
+                    return;
                 }
+                if (!upload.isComplete()) {
+                    dispatchFailure(User.Result.UploadVideo.STATUS_CHUNK_UPLOAD_FAILED);
+                    return;
+                }
+                upload.reportTransfer();
                 /*
                  * next of the last chunk is what triggers the server to declare
                  * that file upload is complete
                  */
-                nextChunkUploadUrl(user.getUserId(), videoId, uploadId, headers0, numChunks - 1, false);
+                try {
+                    nextChunkUploadUrl(user.getUserId(), videoId, uploadId, headers0,
+                            numChunks - 1, false, mIOBuf);
+                } catch (UploadFailure ex) {
+                    dispatchFailure(ex.mStatus);
+                    return;
+                }
                 dispatchSuccess();
 
             } finally {
@@ -94,7 +94,7 @@ class Util {
                 ((null != b) && b.equals(a));
     }
 
-    static abstract class CallbackNotifier extends ResultCallbackHolder implements Runnable {
+    static abstract class CallbackNotifier extends ResultCallbackHolder implements Runnable, Cloneable {
 
         @Override
         public void run() {
@@ -133,6 +133,18 @@ class Util {
 
         abstract void notify(Object callback, Object closure);
 
+        /*
+         * Same notification, for a different callback, handler and closure
+         */
+
+        CallbackNotifier copyFor(ResultCallbackHolder other) {
+            try {
+                return ((CallbackNotifier)clone()).setNoLock(other);
+            } catch (CloneNotSupportedException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
     }
 
     static class SuccessCallbackNotifier extends CallbackNotifier {
@@ -28,12 +28,363 @@ import android.util.Log;
 
 import org.json.JSONObject;
 
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executor;
+
 
 public class VR {
 
     public static boolean newAPIClient(String endPoint, String apiKey, HttpPlugin.RequestFactory httpRequestFactory,
                                       APIClient.Result.Init callback, Handler handler, Object closure) {
-        return APIClientImpl.newInstance(endPoint, apiKey, httpRequestFactory, callback, handler, closure);
+        return newAPIClient(endPoint, apiKey, httpRequestFactory, null, callback, handler, closure);
+    }
+
+    public static boolean newAPIClient(String endPoint, String apiKey, HttpPlugin.RequestFactory httpRequestFactory,
+                                      Options options, APIClient.Result.Init callback, Handler handler,
+                                      Object closure) {
+        return APIClientImpl.newInstance(endPoint, apiKey, httpRequestFactory, options, callback, handler, closure);
+    }
+
+    /**
+     * Optional settings for init().  A default constructed Options object results in the same
+     * behavior as calling init() without options.  The values are read once, during init().
+     */
+
+    public static final class Options {
+
+        private int mNumWorkers = 1, mNumUploadWorkers = 1, mNumVideoUploadConnections = 1;
+        private int mNumSegmentWorkers = 1;
+        private int mVideoUploadUrlLookAhead = 0;
+        private long mVideoUploadUrlMaxAge = 0;
+        private boolean mMapVideoUploadChunks = false;
+        private boolean mVerifyUploads = false;
+        private int mVideoUploadRetryBudget = 0;
+        private long mVideoUploadRetryBackoff = 1000, mVideoUploadMaxRetryBackoff = 30000;
+        private File mUploadJournalDir;
+        private int mMaxUploadBacklogItems = 0;
+        private long mMaxUploadBacklogBytes = 0, mUploadBacklogBlockTimeout = 0;
+        private BacklogPolicy mUploadBacklogPolicy = BacklogPolicy.FAIL_FAST;
+        private BacklogListener mUploadBacklogListener;
+        private Handler mUploadBacklogHandler;
+        private Executor mExecutor;
+        private QueueMetricsListener mQueueMetricsListener;
+        private Handler mQueueMetricsHandler;
+        private long mUploadRateLimit = 0;
+
+        /**
+         * Number of threads serving requests such as login, queries and updates. Requests
+         * made on the same user, live event or video still run one at a time and in the order
+         * they were made; unrelated requests run in parallel.  Default is 1.
+         */
+
+        public Options setNumWorkers(int numWorkers) {
+            mNumWorkers = Math.max(1, numWorkers);
+            return this;
+        }
+
+        /**
+         * Number of threads serving video uploads.  Each upload thread holds its own 1 MB
+         * I/O buffer.  Default is 1.
+         */
+
+        public Options setNumUploadWorkers(int numUploadWorkers) {
+            mNumUploadWorkers = Math.max(1, numUploadWorkers);
+            return this;
+        }
+
+        /**
+         * Number of threads serving live segment uploads, apart from those of video uploads
+         * so that a segment never waits for a video.  Segments of a live event are always
+         * uploaded in order.  Each segment thread holds its own 256 KB I/O buffer.  Default
+         * is 1.
+         */
+
+        public Options setNumSegmentWorkers(int numSegmentWorkers) {
+            mNumSegmentWorkers = Math.max(1, numSegmentWorkers);
+            return this;
+        }
+
+        /**
+         * Number of chunks of a video upload transferred at once, each on its own connection.
+         * More than one keeps a high latency link busy.  Progress and retryUpload still go by
+         * the chunks completed in order, so a failed upload resumes after the last chunk
+         * whose predecessors all completed.  Each connection past the first runs on the
+         * executor given to setExecutor, or without one, on a thread of its own.  Default
+         * is 1.
+         */
+
+        public Options setNumVideoUploadConnections(int numConnections) {
+            mNumVideoUploadConnections = Math.max(1, numConnections);
+            return this;
+        }
+
+        /**
+         * Resolves the upload URLs of the next chunks of a video upload in the background,
+         * while earlier chunks are being transferred, so that a chunk does not wait for an
+         * extra round trip to the server before it starts.  The prefetcher runs on the
+         * executor given to setExecutor, or without one, on a thread of its own.  If the
+         * executor does not start it promptly, the URLs are resolved as the chunks are sent.
+         * Default is 0, for no look-ahead.
+         *
+         * @param lookAhead Number of chunks ahead of those being transferred to resolve URLs
+         *                  for
+         * @param maxAgeMs A resolved URL older than this is resolved again before it is used,
+         *                 0 for no limit.  A URL the server rejects as forbidden is always
+         *                 resolved again once.
+         */
+
+        public Options setVideoUploadUrlLookAhead(int lookAhead, long maxAgeMs) {
+            mVideoUploadUrlLookAhead = Math.max(0, lookAhead);
+            mVideoUploadUrlMaxAge = Math.max(0, maxAgeMs);
+            return this;
+        }
+
+        /**
+         * Reads video upload chunks through memory mappings of the file, one per chunk,
+         * instead of with reads into the upload buffer.  The kernel then reads the file
+         * ahead, and a chunk sent again is served from the page cache.  Each connection
+         * holds a mapping the size of a chunk until it is garbage collected, so this is best
+         * left off on devices short of address space.  Ignored by HTTP plugins that
+         * implement HttpPlugin.ChannelWritableRequest.  Default is false.
+         */
+
+        public Options setMapVideoUploadChunks(boolean map) {
+            mMapVideoUploadChunks = map;
+            return this;
+        }
+
+        /**
+         * Takes the MD5 digest of every video chunk and live segment while it is sent.  If
+         * the HTTP plugin implements HttpPlugin.ResponseHeadersRequest, a returned ETag that
+         * does not match fails the chunk, which is then retried like any other chunk failure,
+         * or fails the segment with STATUS_SEGMENT_UPLOAD_FAILED.  A chunk sent again carries
+         * the digest of its first send as Content-MD5, so the server rejects it if it arrives
+         * corrupted, and a chunk whose bytes changed between sends fails the upload with
+         * STATUS_FILE_MODIFIED_AFTER_UPLOAD_REQUEST.  A live segment given as a byte array
+         * carries its digest as Content-MD5 instead.  Uploads are then always sent through
+         * HttpPlugin.WritableRequest.output(InputStream, byte[]).  Leave off with upload URLs
+         * whose signature does not allow a Content-MD5 header.  Default is false.
+         */
+
+        public Options setVerifyUploads(boolean verify) {
+            mVerifyUploads = verify;
+            return this;
+        }
+
+        /**
+         * Retries a video upload chunk that failed with a network error, a server error or a
+         * timeout, instead of failing the whole upload.  A retry sends the chunk again after
+         * a randomized, exponentially growing delay, and is reported to callbacks that
+         * implement VR.Result.RetryCallback.  Default is a budget of 0, for no retries.
+         *
+         * @param retryBudget Number of retries one run of an upload may make, over all its
+         *                    chunks.  Once used up, the next failure fails the upload, which
+         *                    can then be resumed with UserVideo.retryUpload.
+         * @param backoffMs Delay before the first retry of a chunk, doubled for each further
+         *                  retry of that chunk
+         * @param maxBackoffMs Upper bound for the delay
+         */
+
+        public Options setVideoUploadRetries(int retryBudget, long backoffMs, long maxBackoffMs) {
+            mVideoUploadRetryBudget = Math.max(0, retryBudget);
+            mVideoUploadRetryBackoff = Math.max(0, backoffMs);
+            mVideoUploadMaxRetryBackoff = Math.max(mVideoUploadRetryBackoff, maxBackoffMs);
+            return this;
+        }
+
+        /**
+         * Keeps a journal of video uploads in progress in the given directory, for example
+         * a directory under Context.getFilesDir().  An upload whose process died before it
+         * completed can then be listed with User.getInterruptedUploads after the next login,
+         * and resumed from its last uploaded chunk with UserVideo.retryUpload.  An upload
+         * that died before its first chunk completed is not listed, it has to be started
+         * over.  Default is null, for no journal.
+         */
+
+        public Options setUploadJournalDir(File dir) {
+            mUploadJournalDir = dir;
+            return this;
+        }
+
+        /**
+         * Runs the SDK's request and upload workers on the given executor, instead of on
+         * threads of their own.  A worker occupies an executor thread only while it has
+         * requests to serve.  The executor must be able to run setNumWorkers,
+         * setNumUploadWorkers and setNumSegmentWorkers tasks at once, and should not run
+         * them on the calling thread.
+         * Ordering, priorities and cancellation are the same as with dedicated threads.
+         * The extra connections of a video upload (see setNumVideoUploadConnections) and its
+         * URL prefetcher (see setVideoUploadUrlLookAhead) run as tasks on the executor too.
+         * Those the executor has not started by the time the upload no longer needs them
+         * are skipped, so they never hold up a worker.
+         * Default is null, for dedicated threads.
+         */
+
+        public Options setExecutor(Executor executor) {
+            mExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Limits the uploads that may wait, separately for video uploads and for live
+         * segments.  Uploads already in progress do not count.  Default is no limit.
+         *
+         * @param maxItems Maximum number of waiting uploads, 0 for no limit
+         * @param maxBytes Maximum number of bytes held in memory by waiting uploads, for
+         *                 example the buffers passed to UserLiveEvent.uploadSegmentAsBytes, 0 for
+         *                 no limit. A single upload larger than this is still accepted when
+         *                 nothing else is waiting.
+         */
+
+        public Options setUploadBacklogLimits(int maxItems, long maxBytes) {
+            mMaxUploadBacklogItems = Math.max(0, maxItems);
+            mMaxUploadBacklogBytes = Math.max(0, maxBytes);
+            return this;
+        }
+
+        /**
+         * What to do with a new upload once a limit set by setUploadBacklogLimits is reached.
+         * Default is FAIL_FAST.
+         *
+         * @param blockTimeoutMs Only used with BLOCK. Maximum time in milliseconds the calling
+         *                       thread is blocked waiting for room.
+         */
+
+        public Options setUploadBacklogPolicy(BacklogPolicy policy, long blockTimeoutMs) {
+            mUploadBacklogPolicy = (null == policy) ? BacklogPolicy.FAIL_FAST : policy;
+            mUploadBacklogBlockTimeout = Math.max(0, blockTimeoutMs);
+            return this;
+        }
+
+        /**
+         * Reports the size of the upload backlog every time it changes.
+         *
+         * @param handler A handler on which listener should be called. If null, main handler is used.
+         */
+
+        public Options setUploadBacklogListener(BacklogListener listener, Handler handler) {
+            mUploadBacklogListener = listener;
+            mUploadBacklogHandler = handler;
+            return this;
+        }
+
+        /**
+         * Reports the wait and service time of every request and upload once it has run.
+         * Called for each request, keep it light.
+         *
+         * @param handler A handler on which listener should be called. If null, main handler is used.
+         */
+
+        public Options setQueueMetricsListener(QueueMetricsListener listener, Handler handler) {
+            mQueueMetricsListener = listener;
+            mQueueMetricsHandler = handler;
+            return this;
+        }
+
+        /**
+         * Caps the rate at which all uploads together send bytes, so that large uploads
+         * leave room for other traffic of the device.  Can be changed later with
+         * VR.setUploadRateLimit.  Default is 0, for no limit.
+         */
+
+        public Options setUploadRateLimit(long bytesPerSecond) {
+            mUploadRateLimit = Math.max(0, bytesPerSecond);
+            return this;
+        }
+
+        int getNumWorkers() {
+            return mNumWorkers;
+        }
+
+        long getUploadRateLimit() {
+            return mUploadRateLimit;
+        }
+
+        QueueMetricsListener getQueueMetricsListener() {
+            return mQueueMetricsListener;
+        }
+
+        Handler getQueueMetricsHandler() {
+            return mQueueMetricsHandler;
+        }
+
+        Executor getExecutor() {
+            return mExecutor;
+        }
+
+        boolean hasUploadBacklogLimits() {
+            return mMaxUploadBacklogItems > 0 || mMaxUploadBacklogBytes > 0 ||
+                    null != mUploadBacklogListener;
+        }
+
+        int getMaxUploadBacklogItems() {
+            return mMaxUploadBacklogItems;
+        }
+
+        long getMaxUploadBacklogBytes() {
+            return mMaxUploadBacklogBytes;
+        }
+
+        BacklogPolicy getUploadBacklogPolicy() {
+            return mUploadBacklogPolicy;
+        }
+
+        long getUploadBacklogBlockTimeout() {
+            return mUploadBacklogBlockTimeout;
+        }
+
+        BacklogListener getUploadBacklogListener() {
+            return mUploadBacklogListener;
+        }
+
+        Handler getUploadBacklogHandler() {
+            return mUploadBacklogHandler;
+        }
+
+        int getNumUploadWorkers() {
+            return mNumUploadWorkers;
+        }
+
+        int getNumSegmentWorkers() {
+            return mNumSegmentWorkers;
+        }
+
+        int getNumVideoUploadConnections() {
+            return mNumVideoUploadConnections;
+        }
+
+        int getVideoUploadUrlLookAhead() {
+            return mVideoUploadUrlLookAhead;
+        }
+
+        long getVideoUploadUrlMaxAge() {
+            return mVideoUploadUrlMaxAge;
+        }
+
+        boolean shouldMapVideoUploadChunks() {
+            return mMapVideoUploadChunks;
+        }
+
+        boolean shouldVerifyUploads() {
+            return mVerifyUploads;
+        }
+
+        int getVideoUploadRetryBudget() {
+            return mVideoUploadRetryBudget;
+        }
+
+        File getUploadJournalDir() {
+            return mUploadJournalDir;
+        }
+
+        long getVideoUploadRetryBackoff() {
+            return mVideoUploadRetryBackoff;
+        }
+
+        long getVideoUploadMaxRetryBackoff() {
+            return mVideoUploadMaxRetryBackoff;
+        }
     }
 
     private static final String TAG = Util.getLogTag(VR.class);
@@ -53,6 +404,284 @@ public class VR {
         public boolean isUGCCountry();
     }
 
+    /**
+     * What happens to a new request when the queue it goes to is full.
+     */
+
+    public enum BacklogPolicy {
+
+        /**
+         * The request is rejected, the call that made it returns false.
+         */
+
+        FAIL_FAST,
+
+        /**
+         * The calling thread is blocked until there is room, or until the timeout passes,
+         * in which case the request is rejected.  Do not use this from the main thread.
+         */
+
+        BLOCK,
+
+        /**
+         * Waiting requests of the same kind are dropped, oldest first, until the new request
+         * fits.  Dropped requests fail with VR.Result.STATUS_BACKLOG_FULL.
+         */
+
+        DROP_OLDEST
+    }
+
+    public interface BacklogListener {
+
+        /**
+         * @param numItems Number of requests waiting to start
+         * @param numBytes Bytes held in memory by the waiting requests
+         */
+
+        void onBacklogChanged(int numItems, long numBytes);
+    }
+
+    /**
+     * Snapshot of the requests of one kind, for example NewSegmentUploadAsBytes, that went
+     * through one of the SDK's queues.  Wait time is the time from the call that made a
+     * request to the moment it started, service time the time it then took to run.  Both
+     * are kept as histograms of getNumBuckets() buckets: bucket 0 counts times under 1 ms,
+     * bucket i times of at least getBucketUpperBound(i - 1) and under getBucketUpperBound(i),
+     * the last bucket everything longer.
+     */
+
+    public static final class QueueMetrics {
+
+        /**
+         * Queue of requests such as login, queries and updates.
+         */
+
+        public static final String QUEUE_REQUESTS = "requests";
+
+        /**
+         * Queue of video uploads.
+         */
+
+        public static final String QUEUE_UPLOADS = "uploads";
+
+        /**
+         * Queue of live segment uploads.
+         */
+
+        public static final String QUEUE_SEGMENTS = "segments";
+
+        private final String mQueue, mType;
+        private final int mNumQueued, mNumActive;
+        private final long mNumCoalesced, mNumDropped;
+        private final long[] mWaitTimes, mServiceTimes;
+        private final long mTotalWaitTime, mMaxWaitTime, mTotalServiceTime, mMaxServiceTime;
+
+        QueueMetrics(String queue, String type, int numQueued, int numActive,
+                     long numCoalesced, long numDropped,
+                     long[] waitTimes, long totalWaitTime, long maxWaitTime,
+                     long[] serviceTimes, long totalServiceTime, long maxServiceTime) {
+            mQueue = queue;
+            mType = type;
+            mNumQueued = Math.max(0, numQueued);
+            mNumActive = Math.max(0, numActive);
+            mNumCoalesced = numCoalesced;
+            mNumDropped = numDropped;
+            mWaitTimes = waitTimes;
+            mTotalWaitTime = totalWaitTime;
+            mMaxWaitTime = maxWaitTime;
+            mServiceTimes = serviceTimes;
+            mTotalServiceTime = totalServiceTime;
+            mMaxServiceTime = maxServiceTime;
+        }
+
+        /**
+         * @return QUEUE_REQUESTS, QUEUE_UPLOADS or QUEUE_SEGMENTS
+         */
+
+        public String getQueue() {
+            return mQueue;
+        }
+
+        public String getType() {
+            return mType;
+        }
+
+        /**
+         * @return Number of requests waiting to start
+         */
+
+        public int getNumQueued() {
+            return mNumQueued;
+        }
+
+        /**
+         * @return Number of requests running
+         */
+
+        public int getNumActive() {
+            return mNumActive;
+        }
+
+        /**
+         * @return Number of requests that were not run because they received the result of
+         * an identical request running at the same time
+         */
+
+        public long getNumCoalesced() {
+            return mNumCoalesced;
+        }
+
+        /**
+         * @return Number of requests dropped by BacklogPolicy.DROP_OLDEST
+         */
+
+        public long getNumDropped() {
+            return mNumDropped;
+        }
+
+        public long getNumStarted() {
+            return sum(mWaitTimes);
+        }
+
+        public long getNumCompleted() {
+            return sum(mServiceTimes);
+        }
+
+        public long[] getWaitTimeHistogram() {
+            return mWaitTimes.clone();
+        }
+
+        public long[] getServiceTimeHistogram() {
+            return mServiceTimes.clone();
+        }
+
+        public long getMeanWaitTime() {
+            long count = getNumStarted();
+            return (count > 0) ? mTotalWaitTime / count : 0;
+        }
+
+        public long getMaxWaitTime() {
+            return mMaxWaitTime;
+        }
+
+        public long getMeanServiceTime() {
+            long count = getNumCompleted();
+            return (count > 0) ? mTotalServiceTime / count : 0;
+        }
+
+        public long getMaxServiceTime() {
+            return mMaxServiceTime;
+        }
+
+        /**
+         * @param percentile 0 to 100
+         * @return Upper bound in ms of the bucket holding the given percentile of wait
+         * times, Long.MAX_VALUE if that is the last bucket, 0 if nothing started yet
+         */
+
+        public long getWaitTimePercentile(double percentile) {
+            return getPercentile(mWaitTimes, percentile);
+        }
+
+        /**
+         * See getWaitTimePercentile
+         */
+
+        public long getServiceTimePercentile(double percentile) {
+            return getPercentile(mServiceTimes, percentile);
+        }
+
+        public static int getNumBuckets() {
+            return AsyncWorkQueue.LATENCY_BUCKETS;
+        }
+
+        /**
+         * @return Exclusive upper bound in ms of the times counted by the given bucket,
+         * Long.MAX_VALUE for the last one
+         */
+
+        public static long getBucketUpperBound(int bucket) {
+            if (bucket >= getNumBuckets() - 1) {
+                return Long.MAX_VALUE;
+            }
+            return 1L << Math.max(0, bucket);
+        }
+
+        private static long sum(long[] counts) {
+            long result = 0;
+            for (long count : counts) {
+                result += count;
+            }
+            return result;
+        }
+
+        private static long getPercentile(long[] counts, double percentile) {
+            long total = sum(counts);
+            if (total < 1) {
+                return 0;
+            }
+            long rank = (long)Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i += 1) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return getBucketUpperBound(i);
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return mQueue + "/" + mType + " queued: " + mNumQueued + " active: " + mNumActive +
+                    " completed: " + getNumCompleted() + " wait mean: " + getMeanWaitTime() +
+                    " max: " + mMaxWaitTime + " service mean: " + getMeanServiceTime() +
+                    " max: " + mMaxServiceTime;
+        }
+    }
+
+    public interface QueueMetricsListener {
+
+        /**
+         * @param queue QueueMetrics.QUEUE_REQUESTS, QUEUE_UPLOADS or QUEUE_SEGMENTS
+         * @param type Kind of request, as in QueueMetrics.getType()
+         * @param waitTime Time in ms the request waited to start
+         * @param serviceTime Time in ms the request took to run
+         * @param numQueued Number of requests of the same kind still waiting
+         */
+
+        void onRequestCompleted(String queue, String type, long waitTime, long serviceTime,
+                                int numQueued);
+    }
+
+    /**
+     * Scheduling class of a request. Pending requests of a more urgent class are started
+     * before those of a less urgent one. A request of a less urgent class gains urgency the
+     * longer it waits, so it is never held back indefinitely. Requests on the same user, live
+     * event or video always run in the order they were made, whatever their priority.
+     */
+
+    public enum Priority {
+
+        /**
+         * Login and session requests. Default for VR.login and similar.
+         */
+
+        AUTH,
+
+        /**
+         * Queries and updates that a user is likely waiting on, and live segment uploads.
+         */
+
+        INTERACTIVE,
+
+        /**
+         * Video uploads, thumbnail uploads and other background transfers.
+         */
+
+        BULK
+    }
+
     /**
      * Initialize the SDK.
      *
@@ -66,6 +695,18 @@ public class VR {
 
     public static boolean init(String endPoint, String apiKey,
         HttpPlugin.RequestFactory factory, Result.Init callback, Handler handler, Object closure) {
+        return init(endPoint, apiKey, factory, null, callback, handler, closure);
+    }
+
+    /**
+     * Initialize the SDK with options.
+     *
+     * @param options Tuning options, see VR.Options. Can be null, in which case defaults are used.
+     * @see #init(String, String, HttpPlugin.RequestFactory, Result.Init, Handler, Object)
+     */
+
+    public static boolean init(String endPoint, String apiKey, HttpPlugin.RequestFactory factory,
+        Options options, Result.Init callback, Handler handler, Object closure) {
 
         synchronized (sLock) {
             if (null != sAPIClient || null != sInitCallbackApi) {
@@ -102,7 +743,8 @@ public class VR {
                 }
             };
 
-            return APIClientImpl.newInstance(endPoint, apiKey, factory, sInitCallbackApi, handler, closure);
+            return APIClientImpl.newInstance(endPoint, apiKey, factory, options, sInitCallbackApi,
+                    handler, closure);
         }
     }
 
@@ -287,6 +929,63 @@ public class VR {
 
 
 
+    /**
+     * Returns a snapshot of the latency and depth of every kind of request that went through
+     * the SDK's queues.
+     *
+     * @return A non null list if init was performed, null otherwise
+     */
+
+    public static List<QueueMetrics> getQueueMetrics() {
+        synchronized (sLock) {
+            if (null == sAPIClient) {
+                return null;
+            }
+            return sAPIClient.getQueueMetrics();
+        }
+    }
+
+    /**
+     * Kinds of uploads that can be given a rate limit of their own with setUploadRateLimit.
+     * These are also the names QueueMetrics.getType reports them with.
+     */
+
+    public static final String UPLOAD_TYPE_VIDEO = "VideoContentUpload";
+    public static final String UPLOAD_TYPE_LIVE_SEGMENT = "NewSegmentUploadAsBytes";
+    public static final String UPLOAD_TYPE_THUMBNAIL = "UploadThumbnail";
+
+    /**
+     * Caps the rate at which all uploads together send bytes, for example to keep background
+     * video uploads from starving the segments of a live event.  Takes effect on uploads
+     * already in progress.
+     *
+     * @param bytesPerSecond The new limit, 0 for no limit
+     * @return true if init was performed, false otherwise
+     */
+
+    public static boolean setUploadRateLimit(long bytesPerSecond) {
+        return setUploadRateLimit(null, bytesPerSecond);
+    }
+
+    /**
+     * Caps the rate at which uploads of one kind send bytes, on top of the limit for all
+     * uploads.  Takes effect on uploads already in progress.
+     *
+     * @param type One of the UPLOAD_TYPE constants, or null for all uploads together
+     * @param bytesPerSecond The new limit, 0 for no limit
+     * @return true if init was performed, false otherwise
+     */
+
+    public static boolean setUploadRateLimit(String type, long bytesPerSecond) {
+        synchronized (sLock) {
+            if (null == sAPIClient) {
+                return false;
+            }
+            sAPIClient.setUploadRateLimit(type, bytesPerSecond);
+            return true;
+        }
+    }
+
     /**
      * Returns the end point that this SDK is currently working with - provided by application
      * on the init call.
@@ -393,6 +1092,19 @@ public class VR {
 
         public static final int STATUS_FEATURE_NOT_SUPPORTED = STATUS_SDK_BASE | 1;
 
+        /**
+         * The request was dropped before it started, to make room for newer requests.
+         * See VR.BacklogPolicy.DROP_OLDEST
+         */
+
+        public static final int STATUS_BACKLOG_FULL = STATUS_SDK_BASE | 2;
+
+        /**
+         * The deadline given with the request passed before the request could complete.
+         */
+
+        public static final int STATUS_EXPIRED = STATUS_SDK_BASE | 3;
+
         /**
          * The initializer group of callbacks. Used by VR.init()
          */
@@ -471,6 +1183,51 @@ public class VR {
 
         }
 
+        /**
+         * Optionally implemented, next to ProgressCallback, by the callback of a request that
+         * retries failed parts of its work on its own, such as the chunks of a video upload.
+         */
+
+        public interface RetryCallback {
+
+            /**
+             * A part of the request failed and is retried after a delay.
+             *
+             * @param closure Application provided object used to identify this request.
+             * @param part The part that is retried, for example the chunk number
+             * @param attempt 1 for the first retry of this part, 2 for the second, and so on
+             * @param delayMs Time before the retry is made
+             * @param status The status the part failed with, 0 if it failed with an exception
+             */
+
+            void onRetry(Object closure, int part, int attempt, long delayMs, int status);
+        }
+
+        /**
+         * Optionally implemented, next to ProgressCallback, by the callback of a request that
+         * transfers a known number of bytes, such as a video upload.  Called every time bytes
+         * are reported, which is more often than ProgressCallback is.  ProgressCallback keeps
+         * the units of the request, for a video upload the number of chunks completed in
+         * order out of the number of chunks.
+         */
+
+        public interface TransferProgressCallback {
+
+            /**
+             * The latest transfer rate estimate.
+             *
+             * @param closure Application provided object used to identify this request.
+             * @param bytesSent Bytes sent so far, including those sent before the request was
+             *                  resumed.  Drops back if a part is sent again.
+             * @param totalBytes Bytes to send in all
+             * @param bytesPerSecond Smoothed send rate, -1 until it can be estimated
+             * @param etaMs Estimated time left, -1 until it can be estimated
+             */
+
+            void onTransferProgress(Object closure, long bytesSent, long totalBytes,
+                                    long bytesPerSecond, long etaMs);
+        }
+
 
         /**
          * Callbacks used to notify success of a request. Two types are defined here, one with
@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) 2016 Samsung Electronics America
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.samsung.msca.samsungvr.sdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Scheduling tests on a queue with one worker, unless a test makes its own.  Each test
+ * first enqueues a gate item that holds the worker, then the items under test, then opens
+ * the gate, so that the order in which the items run only depends on the queue.
+ */
+
+public class AsyncWorkQueueTest {
+
+    private static final long TIMEOUT_MS = 10000;
+
+    private static final AsyncWorkItemType TYPE = new AsyncWorkItemType() {
+        @Override
+        public String getName() {
+            return "Test";
+        }
+    };
+
+    private final List<String> mRunOrder = new ArrayList<>();
+
+    private class Item extends AsyncWorkItem<AsyncWorkItemType> {
+
+        String mName;
+        CountDownLatch mStarted, mGate;
+        long mPayloadSize;
+        boolean mDropped, mCleared, mShared, mHasResult = true;
+        Object mCoalesceKey;
+
+        Item() {
+            super(TYPE);
+        }
+
+        @Override
+        protected long getPayloadSize() {
+            return mPayloadSize;
+        }
+
+        @Override
+        protected void onDropped() {
+            mDropped = true;
+        }
+
+        @Override
+        protected Object getCoalesceKey() {
+            return mCoalesceKey;
+        }
+
+        @Override
+        protected boolean shareResult(AsyncWorkItem<AsyncWorkItemType> follower) {
+            if (isCancelled() || !mHasResult) {
+                return false;
+            }
+            ((Item)follower).mShared = true;
+            return true;
+        }
+
+        @Override
+        protected void onCleared() {
+            mCleared = true;
+        }
+
+        @Override
+        public void run() {
+            synchronized (mRunOrder) {
+                mRunOrder.add(mName);
+            }
+            if (null != mStarted) {
+                mStarted.countDown();
+            }
+            if (null != mGate) {
+                try {
+                    mGate.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private AsyncWorkQueue<AsyncWorkItemType, Item> mQueue;
+    private CountDownLatch mGate;
+
+    private AsyncWorkQueue<AsyncWorkItemType, Item> newQueue(int numWorkers) {
+        AsyncWorkQueue.AsyncWorkItemFactory<AsyncWorkItemType, Item> factory =
+                new AsyncWorkQueue.AsyncWorkItemFactory<AsyncWorkItemType, Item>() {
+                    @Override
+                    public Item newWorkItem(AsyncWorkItemType type) {
+                        return new Item();
+                    }
+                };
+        return new AsyncWorkQueue<>(factory, false, 16, numWorkers, null, null, 0);
+    }
+
+    @Before
+    public void setUp() {
+        mQueue = newQueue(1);
+    }
+
+    @After
+    public void tearDown() {
+        if (null != mGate) {
+            mGate.countDown();
+        }
+        mQueue.quit();
+    }
+
+    private Item newItem(String name, int priority, Object orderingKey) {
+        Item item = mQueue.obtainWorkItem(TYPE);
+        item.mName = name;
+        item.setPriority(priority);
+        item.setOrderingKey(orderingKey);
+        return item;
+    }
+
+    private Item enqueue(String name, int priority, Object orderingKey) {
+        Item item = newItem(name, priority, orderingKey);
+        assertTrue(mQueue.enqueue(item));
+        return item;
+    }
+
+    /*
+     * Occupies the worker until openGate()
+     */
+
+    private void closeGate() throws InterruptedException {
+        mGate = new CountDownLatch(1);
+        Item gate = newItem("gate", 0, null);
+        gate.mStarted = new CountDownLatch(1);
+        gate.mGate = mGate;
+        assertTrue(mQueue.enqueue(gate));
+        assertTrue(gate.mStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private void openGate() {
+        mGate.countDown();
+    }
+
+    /*
+     * Waits for the queue to run everything enqueued so far
+     */
+
+    private List<String> awaitRunOrder() throws InterruptedException {
+        Item last = newItem("last", Integer.MAX_VALUE / 2, null);
+        last.mStarted = new CountDownLatch(1);
+        assertTrue(mQueue.enqueue(last));
+        assertTrue(last.mStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        synchronized (mRunOrder) {
+            List<String> result = new ArrayList<>(mRunOrder);
+            result.remove("gate");
+            result.remove("last");
+            return result;
+        }
+    }
+
+    /*
+     * For queues with a backlog limit, where awaitRunOrder() could be turned away
+     */
+
+    private List<String> awaitRuns(int count) throws InterruptedException {
+        long until = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < until) {
+            synchronized (mRunOrder) {
+                if (mRunOrder.size() >= count + 1) {
+                    List<String> result = new ArrayList<>(mRunOrder);
+                    result.remove("gate");
+                    return result;
+                }
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError("Timed out, ran: " + mRunOrder);
+    }
+
+    private Item newItem(String name, long payloadSize) {
+        Item item = newItem(name, 0, null);
+        item.mPayloadSize = payloadSize;
+        return item;
+    }
+
+    @Test
+    public void runsMostUrgentPriorityFirst() throws InterruptedException {
+        closeGate();
+        enqueue("low1", 2, null);
+        enqueue("high1", 0, null);
+        enqueue("normal", 1, null);
+        enqueue("high2", 0, null);
+        enqueue("low2", 2, null);
+        openGate();
+        assertEquals(Arrays.asList("high1", "high2", "normal", "low1", "low2"), awaitRunOrder());
+    }
+
+    @Test
+    public void orderingKeyKeepsFifoOverPriority() throws InterruptedException {
+        closeGate();
+        enqueue("key-low", 2, "key");
+        enqueue("key-high", 0, "key");
+        enqueue("other", 1, null);
+        openGate();
+        assertEquals(Arrays.asList("other", "key-low", "key-high"), awaitRunOrder());
+    }
+
+    /*
+     * With a free worker, an item whose key is in flight waits for it while an item with
+     * another key runs
+     */
+
+    @Test
+    public void orderingKeyHoldsItemWhileKeyInFlight() throws InterruptedException {
+        mQueue.quit();
+        mQueue = newQueue(2);
+        mGate = new CountDownLatch(1);
+        Item first = newItem("first", 0, "key");
+        first.mStarted = new CountDownLatch(1);
+        first.mGate = mGate;
+        assertTrue(mQueue.enqueue(first));
+        assertTrue(first.mStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        Item second = newItem("second", 0, "key");
+        second.mStarted = new CountDownLatch(1);
+        assertTrue(mQueue.enqueue(second));
+        Item other = newItem("other", 0, "other");
+        other.mStarted = new CountDownLatch(1);
+        assertTrue(mQueue.enqueue(other));
+
+        assertTrue(other.mStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(second.mStarted.await(100, TimeUnit.MILLISECONDS));
+        openGate();
+        assertTrue(second.mStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        synchronized (mRunOrder) {
+            assertEquals(Arrays.asList("first", "other", "second"), mRunOrder);
+        }
+    }
+
+    @Test
+    public void scheduleTimeAgesByPriority() {
+        Item item = newItem("item", 3, null);
+        assertTrue(mQueue.enqueue(item));
+        assertEquals(item.getEnqueueTime() + 3 * AsyncWorkQueue.PRIORITY_AGING_MS,
+                item.getScheduleTime());
+    }
+
+    @Test
+    public void failFastRejectsOverItemLimit() throws InterruptedException {
+        mQueue.setBacklogLimits(2, 0, VR.BacklogPolicy.FAIL_FAST, 0, null);
+        closeGate();
+        assertTrue(mQueue.enqueue(newItem("a", 0)));
+        assertTrue(mQueue.enqueue(newItem("b", 0)));
+        assertFalse(mQueue.enqueue(newItem("c", 0)));
+        openGate();
+        assertEquals(Arrays.asList("a", "b"), awaitRuns(2));
+        /*
+         * Items leave the backlog when they start
+         */
+        assertTrue(mQueue.enqueue(newItem("d", 0)));
+        assertEquals(Arrays.asList("a", "b", "d"), awaitRuns(3));
+    }
+
+    @Test
+    public void failFastRejectsOverByteLimit() throws InterruptedException {
+        mQueue.setBacklogLimits(0, 100, VR.BacklogPolicy.FAIL_FAST, 0, null);
+        closeGate();
+        assertTrue(mQueue.enqueue(newItem("a", 60)));
+        assertFalse(mQueue.enqueue(newItem("b", 60)));
+        assertTrue(mQueue.enqueue(newItem("c", 40)));
+        openGate();
+        assertEquals(Arrays.asList("a", "c"), awaitRuns(2));
+    }
+
+    @Test
+    public void oversizedItemFitsEmptyBacklog() throws InterruptedException {
+        mQueue.setBacklogLimits(0, 100, VR.BacklogPolicy.FAIL_FAST, 0, null);
+        closeGate();
+        assertTrue(mQueue.enqueue(newItem("big", 500)));
+        assertFalse(mQueue.enqueue(newItem("small", 1)));
+        openGate();
+        assertEquals(Arrays.asList("big"), awaitRuns(1));
+    }
+
+    @Test
+    public void dropOldestMakesRoom() throws InterruptedException {
+        final int[] maxItems = new int[1];
+        mQueue.setBacklogLimits(2, 0, VR.BacklogPolicy.DROP_OLDEST, 0,
+                new AsyncWorkQueue.BacklogObserver() {
+                    @Override
+                    public void onBacklogChanged(AsyncWorkQueue<?, ?> queue, int numItems,
+                                                 long numBytes) {
+                        maxItems[0] = Math.max(maxItems[0], numItems);
+                    }
+                });
+        closeGate();
+        Item a = newItem("a", 0);
+        assertTrue(mQueue.enqueue(a));
+        assertTrue(mQueue.enqueue(newItem("b", 0)));
+        assertTrue(mQueue.enqueue(newItem("c", 0)));
+        assertTrue(a.mDropped);
+        openGate();
+        assertEquals(Arrays.asList("b", "c"), awaitRuns(2));
+        assertEquals(2, maxItems[0]);
+        VR.QueueMetrics metrics = mQueue.getMetrics("test").get(0);
+        assertEquals("Test", metrics.getType());
+        assertEquals(1, metrics.getNumDropped());
+    }
+
+    @Test
+    public void blockWaitsForRoom() throws InterruptedException {
+        mQueue.setBacklogLimits(1, 0, VR.BacklogPolicy.BLOCK, TIMEOUT_MS, null);
+        closeGate();
+        assertTrue(mQueue.enqueue(newItem("a", 0)));
+        final boolean[] accepted = new boolean[1];
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                accepted[0] = mQueue.enqueue(newItem("b", 0));
+            }
+        };
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        openGate();
+        producer.join(TIMEOUT_MS);
+        assertTrue(accepted[0]);
+        assertEquals(Arrays.asList("a", "b"), awaitRuns(2));
+    }
+
+    private Item enqueueCoalescable(String name, Object coalesceKey, Object orderingKey) {
+        Item item = newItem(name, 0, orderingKey);
+        item.mCoalesceKey = coalesceKey;
+        assertTrue(mQueue.enqueue(item));
+        return item;
+    }
+
+    @Test
+    public void identicalItemsShareOneRun() throws InterruptedException {
+        closeGate();
+        Item leader = enqueueCoalescable("leader", "same", null);
+        Item follower1 = enqueueCoalescable("follower1", "same", null);
+        Item follower2 = enqueueCoalescable("follower2", "same", null);
+        enqueueCoalescable("different", "other", null);
+        openGate();
+        assertEquals(Arrays.asList("leader", "different"), awaitRunOrder());
+        assertFalse(leader.mShared);
+        assertTrue(follower1.mShared);
+        assertTrue(follower2.mShared);
+        assertEquals(2, mQueue.getMetrics("test").get(0).getNumCoalesced());
+    }
+
+    @Test
+    public void followersRunWhenLeaderHasNoResult() throws InterruptedException {
+        closeGate();
+        Item leader = enqueueCoalescable("leader", "same", null);
+        leader.mHasResult = false;
+        Item follower = enqueueCoalescable("follower", "same", null);
+        openGate();
+        assertEquals(Arrays.asList("leader", "follower"), awaitRunOrder());
+        assertFalse(follower.mShared);
+    }
+
+    @Test
+    public void overtakenItemIsNotJoined() throws InterruptedException {
+        closeGate();
+        enqueueCoalescable("query1", "query", "key");
+        enqueue("update", 0, "key");
+        Item query2 = enqueueCoalescable("query2", "query", "key");
+        openGate();
+        assertEquals(Arrays.asList("query1", "update", "query2"), awaitRunOrder());
+        assertFalse(query2.mShared);
+    }
+
+    @Test
+    public void clearCancelsFollowers() throws InterruptedException {
+        mGate = new CountDownLatch(1);
+        Item active = newItem("gate", 0, null);
+        active.mCoalesceKey = "active";
+        active.mStarted = new CountDownLatch(1);
+        active.mGate = mGate;
+        assertTrue(mQueue.enqueue(active));
+        assertTrue(active.mStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Item activeFollower = enqueueCoalescable("activeFollower", "active", null);
+        Item queued = enqueueCoalescable("queued", "queued", null);
+        Item queuedFollower = enqueueCoalescable("queuedFollower", "queued", null);
+
+        mQueue.clear();
+        assertTrue(active.isCancelled());
+        assertTrue(activeFollower.mCleared);
+        assertTrue(activeFollower.isCancelled());
+        assertTrue(queuedFollower.mCleared);
+        assertTrue(queuedFollower.isCancelled());
+        assertFalse(queued.mCleared);
+        openGate();
+        assertEquals(new ArrayList<String>(), awaitRunOrder());
+        assertFalse(activeFollower.mShared);
+        assertFalse(queuedFollower.mShared);
+    }
+}
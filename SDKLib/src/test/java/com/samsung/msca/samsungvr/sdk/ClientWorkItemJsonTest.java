@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016 Samsung Electronics America
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.samsung.msca.samsungvr.sdk;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/*
+ * The parts of the JSON response decoding that do not need android.util.JsonReader, which
+ * is not available to JVM unit tests.
+ */
+
+public class ClientWorkItemJsonTest {
+
+    private static final String TEXT = "{\"title\":\"caf\u00e9 \u4e2d\u6587 \ud83c\udfa5\"}";
+
+    /*
+     * Hands out at most one byte per read, so that every multibyte sequence is split
+     */
+
+    private static class TrickleStream extends InputStream {
+
+        private final InputStream mInner;
+
+        TrickleStream(byte[] data) {
+            mInner = new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return mInner.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            return mInner.read(buffer, offset, Math.min(1, count));
+        }
+    }
+
+    private static String readAll(Reader reader, int readSize) throws IOException {
+        StringBuilder result = new StringBuilder();
+        char[] chars = new char[readSize];
+        int read;
+        while ((read = reader.read(chars, 0, readSize)) >= 0) {
+            if (0 == read) {
+                fail("read returned 0 after: " + result);
+            }
+            result.append(chars, 0, read);
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void numbersMapLikeOrgJson() {
+        assertEquals(0, ClientWorkItem.toJsonNumber("0"));
+        assertEquals(0, ClientWorkItem.toJsonNumber("-0"));
+        assertEquals(Integer.MAX_VALUE, ClientWorkItem.toJsonNumber("2147483647"));
+        assertEquals(Integer.MIN_VALUE, ClientWorkItem.toJsonNumber("-2147483648"));
+        assertEquals(2147483648L, ClientWorkItem.toJsonNumber("2147483648"));
+        assertEquals(-2147483649L, ClientWorkItem.toJsonNumber("-2147483649"));
+        assertEquals(9.223372036854775808E18, ClientWorkItem.toJsonNumber("9223372036854775808"));
+        assertEquals(1.5, ClientWorkItem.toJsonNumber("1.5"));
+        assertEquals(1000.0, ClientWorkItem.toJsonNumber("1e3"));
+        assertEquals(-2.5E-3, ClientWorkItem.toJsonNumber("-25E-4"));
+    }
+
+    @Test
+    public void decodesSplitSequences() throws IOException {
+        byte[] data = TEXT.getBytes(StandardCharsets.UTF_8);
+        int[] bufSizes = { 4, 5, 16, 8192 };
+        int[] readSizes = { 1, 2, 3, 1024 };
+        for (int bufSize : bufSizes) {
+            for (int readSize : readSizes) {
+                Reader reader = new ClientWorkItem.HttpBodyReader(new TrickleStream(data),
+                        new byte[bufSize]);
+                assertEquals("buf: " + bufSize + " read: " + readSize, TEXT,
+                        readAll(reader, readSize));
+            }
+        }
+    }
+
+    @Test
+    public void malformedInputIsReplaced() throws IOException {
+        byte[] data = { 'a', (byte)0xc3, 'b', (byte)0xff };
+        Reader reader = new ClientWorkItem.HttpBodyReader(new ByteArrayInputStream(data),
+                new byte[16]);
+        assertEquals("a\ufffdb\ufffd", readAll(reader, 16));
+    }
+
+    @Test
+    public void emptyBody() throws IOException {
+        Reader reader = new ClientWorkItem.HttpBodyReader(new ByteArrayInputStream(new byte[0]),
+                new byte[16]);
+        assertEquals(-1, reader.read(new char[4], 0, 4));
+        assertEquals(-1, reader.read(new char[4], 0, 4));
+    }
+
+    @Test
+    public void cancelStopsReading() throws IOException {
+        Reader reader = new ClientWorkItem.HttpBodyReader(
+                new ByteArrayInputStream(TEXT.getBytes(StandardCharsets.UTF_8)), new byte[16]) {
+            @Override
+            protected boolean isCancelled() {
+                return true;
+            }
+        };
+        try {
+            reader.read(new char[4], 0, 4);
+            fail("expected InterruptedIOException");
+        } catch (InterruptedIOException ex) {
+            /* expected */
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2016 Samsung Electronics America
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.samsung.msca.samsungvr.sdk;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class HttpUploadStreamTest {
+
+    private static class TestStream extends ClientWorkItem.HttpUploadStream {
+
+        long mProvided;
+
+        TestStream(InputStream inner, int bufSize, boolean isChunked) {
+            super(inner, new byte[bufSize], isChunked);
+        }
+
+        @Override
+        protected void onBytesProvided(byte[] data, int offset, int len) {
+            mProvided += len;
+        }
+    }
+
+    private static byte[] readAll(InputStream in, int readSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[readSize];
+        int read;
+        while ((read = in.read(buf, 0, readSize)) > 0) {
+            out.write(buf, 0, read);
+        }
+        assertEquals(-1, read);
+        return out.toByteArray();
+    }
+
+    private static String ascii(byte[] data) {
+        return new String(data, StandardCharsets.US_ASCII);
+    }
+
+    /*
+     * Decodes a chunked body, failing on anything but exact framing
+     */
+
+    private static byte[] decodeChunked(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int pos = 0;
+        while (true) {
+            int lineEnd = pos;
+            while (lineEnd < body.length && '\r' != body[lineEnd]) {
+                lineEnd += 1;
+            }
+            assertTrue(lineEnd + 1 < body.length && '\n' == body[lineEnd + 1]);
+            String sizeLine = new String(body, pos, lineEnd - pos, StandardCharsets.US_ASCII);
+            assertTrue("size line: " + sizeLine, sizeLine.matches("[0-9a-f]+"));
+            int size = Integer.parseInt(sizeLine, 16);
+            pos = lineEnd + 2;
+            if (0 == size) {
+                assertEquals("\r\n", new String(body, pos, body.length - pos,
+                        StandardCharsets.US_ASCII));
+                return out.toByteArray();
+            }
+            out.write(body, pos, size);
+            pos += size;
+            assertEquals("\r\n", new String(body, pos, 2, StandardCharsets.US_ASCII));
+            pos += 2;
+        }
+    }
+
+    @Test
+    public void chunkedFraming() throws IOException {
+        byte[] data = new byte[40];
+        for (int i = 0; i < data.length; i += 1) {
+            data[i] = (byte)('a' + i % 26);
+        }
+        TestStream stream = new TestStream(new ByteArrayInputStream(data), 16, true);
+        String body = ascii(readAll(stream, 1000));
+        assertEquals("10\r\n" + ascii(data).substring(0, 16) + "\r\n" +
+                "10\r\n" + ascii(data).substring(16, 32) + "\r\n" +
+                "8\r\n" + ascii(data).substring(32) + "\r\n" +
+                "0\r\n\r\n", body);
+        assertEquals(data.length, stream.mProvided);
+    }
+
+    @Test
+    public void chunkSizeIsHex() throws IOException {
+        byte[] data = new byte[0x1abc];
+        TestStream stream = new TestStream(new ByteArrayInputStream(data), data.length, true);
+        byte[] body = readAll(stream, 64 * 1024);
+        assertTrue(ascii(body).startsWith("1abc\r\n"));
+        assertArrayEquals(data, decodeChunked(body));
+    }
+
+    @Test
+    public void emptyBody() throws IOException {
+        assertEquals("0\r\n\r\n", ascii(readAll(
+                new TestStream(new ByteArrayInputStream(new byte[0]), 16, true), 16)));
+        assertEquals(0, readAll(
+                new TestStream(new ByteArrayInputStream(new byte[0]), 16, false), 16).length);
+    }
+
+    @Test
+    public void notChunkedPassesThrough() throws IOException {
+        byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+        TestStream stream = new TestStream(new ByteArrayInputStream(data), 4096, false);
+        assertArrayEquals(data, readAll(stream, 1000));
+        assertEquals(data.length, stream.mProvided);
+    }
+
+    @Test
+    public void decodesWithOddReadSizes() throws IOException {
+        byte[] data = new byte[300000];
+        new Random(2).nextBytes(data);
+        int[] readSizes = { 1, 3, 7, 4095, 8192, 65536 };
+        for (int readSize : readSizes) {
+            TestStream stream = new TestStream(new ByteArrayInputStream(data), 8192, true);
+            assertArrayEquals(data, decodeChunked(readAll(stream, readSize)));
+            assertEquals(data.length, stream.mProvided);
+        }
+    }
+
+    @Test
+    public void singleByteReadIsUnsigned() throws IOException {
+        TestStream stream = new TestStream(
+                new ByteArrayInputStream(new byte[] { (byte)0xff, (byte)0x80 }), 16, false);
+        assertEquals(0xff, stream.read());
+        assertEquals(0x80, stream.read());
+        assertEquals(-1, stream.read());
+    }
+
+    @Test
+    public void innerErrorPropagates() {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken");
+            }
+        };
+        try {
+            readAll(new TestStream(failing, 16, true), 16);
+            fail("expected IOException");
+        } catch (IOException ex) {
+            assertEquals("broken", ex.getMessage());
+        }
+    }
+
+    /*
+     * An endless source that allocates nothing per read
+     */
+
+    private static class RepeatingStream extends InputStream {
+
+        private final byte[] mData;
+        private long mRemaining;
+
+        RepeatingStream(byte[] data, long length) {
+            mData = data;
+            mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) {
+            if (mRemaining < 1) {
+                return -1;
+            }
+            int len = (int)Math.min(mRemaining, Math.min(count, mData.length));
+            System.arraycopy(mData, 0, buffer, offset, len);
+            mRemaining -= len;
+            return len;
+        }
+    }
+
+    private static long stream(byte[] data, long length, byte[] readBuf) throws IOException {
+        TestStream stream = new TestStream(new RepeatingStream(data, length), 8192, true);
+        long total = 0;
+        int read;
+        while ((read = stream.read(readBuf, 0, readBuf.length)) > 0) {
+            total += read;
+        }
+        return total;
+    }
+
+    /*
+     * Framing must not allocate per buffer.  Streams 64 MB through a chunked stream with
+     * 8 KB buffers and checks the bytes the thread allocated, see ThreadMXBean.  Skipped on
+     * JVMs that do not count allocations.
+     */
+
+    @Test
+    public void framingDoesNotAllocatePerBuffer() throws IOException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        byte[] data = new byte[8192];
+        new Random(3).nextBytes(data);
+        byte[] readBuf = new byte[16 * 1024];
+        long length = 64L * 1024 * 1024;
+        for (int i = 0; i < 3; i += 1) {
+            stream(data, length, readBuf);
+        }
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        long total = stream(data, length, readBuf);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        long chunks = length / data.length;
+        assertEquals(length + chunks * ("2000\r\n".length() + 2) + "0\r\n\r\n".length(), total);
+        /*
+         * Only the stream itself and its 8 KB buffer, a per buffer allocation would be at
+         * least 16 bytes for each of the 8192 buffers
+         */
+        assertTrue("allocated: " + allocated, allocated < 8192 * 16);
+    }
+}
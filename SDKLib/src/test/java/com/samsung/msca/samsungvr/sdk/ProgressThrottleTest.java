@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016 Samsung Electronics America
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.samsung.msca.samsungvr.sdk;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProgressThrottleTest {
+
+    private static final long MAX = 1000000;
+
+    @Test
+    public void firstReportGoesOut() {
+        ClientWorkItem.ProgressThrottle throttle = new ClientWorkItem.ProgressThrottle(250);
+        assertTrue(throttle.shouldReport(0, MAX, 0, false));
+    }
+
+    @Test
+    public void holdsReportsWithinInterval() {
+        ClientWorkItem.ProgressThrottle throttle = new ClientWorkItem.ProgressThrottle(250);
+        assertTrue(throttle.shouldReport(0, MAX, 1000, false));
+        assertFalse(throttle.shouldReport(MAX / 2, MAX, 1249, false));
+        assertTrue(throttle.shouldReport(MAX / 2, MAX, 1250, false));
+    }
+
+    @Test
+    public void holdsReportsBelowStep() {
+        ClientWorkItem.ProgressThrottle throttle = new ClientWorkItem.ProgressThrottle(250);
+        assertTrue(throttle.shouldReport(0, MAX, 1000, false));
+        assertFalse(throttle.shouldReport(MAX / 2000, MAX, 2000, false));
+        assertTrue(throttle.shouldReport(MAX / 1000, MAX, 2000, false));
+    }
+
+    @Test
+    public void finalReportGoesOutOnce() {
+        ClientWorkItem.ProgressThrottle throttle = new ClientWorkItem.ProgressThrottle(250);
+        assertTrue(throttle.shouldReport(0, MAX, 1000, false));
+        assertTrue(throttle.shouldReport(MAX, MAX, 1001, false));
+        assertFalse(throttle.shouldReport(MAX, MAX, 5000, false));
+    }
+
+    @Test
+    public void restartGoesOut() {
+        ClientWorkItem.ProgressThrottle throttle = new ClientWorkItem.ProgressThrottle(250);
+        assertTrue(throttle.shouldReport(MAX / 2, MAX, 1000, false));
+        assertTrue(throttle.shouldReport(0, MAX, 1001, false));
+
+        throttle.reset();
+        assertTrue(throttle.shouldReport(0, MAX, 1002, false));
+    }
+
+    @Test
+    public void forcedReportGoesOut() {
+        ClientWorkItem.ProgressThrottle throttle = new ClientWorkItem.ProgressThrottle(500);
+        assertTrue(throttle.shouldReport(0, MAX, 1000, false));
+        assertTrue(throttle.shouldReport(0, MAX, 1000, true));
+        assertFalse(throttle.shouldReport(1, MAX, 1001, false));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016 Samsung Electronics America
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.samsung.msca.samsungvr.sdk;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueueMetricsTest {
+
+    private static VR.QueueMetrics newMetrics(long[] waitTimes, long totalWaitTime) {
+        return new VR.QueueMetrics(VR.QueueMetrics.QUEUE_REQUESTS, "test", 0, 0, 0, 0,
+                waitTimes, totalWaitTime, 0, new long[VR.QueueMetrics.getNumBuckets()], 0, 0);
+    }
+
+    private static long[] counts(int... bucketAndCount) {
+        long[] result = new long[VR.QueueMetrics.getNumBuckets()];
+        for (int i = 0; i < bucketAndCount.length; i += 2) {
+            result[bucketAndCount[i]] = bucketAndCount[i + 1];
+        }
+        return result;
+    }
+
+    @Test
+    public void bucketUpperBounds() {
+        int last = VR.QueueMetrics.getNumBuckets() - 1;
+        assertEquals(1, VR.QueueMetrics.getBucketUpperBound(0));
+        assertEquals(2, VR.QueueMetrics.getBucketUpperBound(1));
+        assertEquals(1024, VR.QueueMetrics.getBucketUpperBound(10));
+        assertEquals(1L << (last - 1), VR.QueueMetrics.getBucketUpperBound(last - 1));
+        assertEquals(Long.MAX_VALUE, VR.QueueMetrics.getBucketUpperBound(last));
+        assertEquals(Long.MAX_VALUE, VR.QueueMetrics.getBucketUpperBound(last + 5));
+    }
+
+    @Test
+    public void recordedTimesFallUnderTheirBucketBound() {
+        long[] times = { 0, 1, 2, 3, 4, 7, 8, 1000, 1023, 1024, 262143, 262144, 524288,
+                Long.MAX_VALUE, -5 };
+        for (long time : times) {
+            int bucket = AsyncWorkQueue.getLatencyBucket(time);
+            long clamped = Math.max(0, time);
+            assertTrue("time: " + time, clamped < VR.QueueMetrics.getBucketUpperBound(bucket) ||
+                    Long.MAX_VALUE == VR.QueueMetrics.getBucketUpperBound(bucket));
+            if (bucket > 0) {
+                assertTrue("time: " + time,
+                        clamped >= VR.QueueMetrics.getBucketUpperBound(bucket - 1));
+            }
+        }
+        assertEquals(0, AsyncWorkQueue.getLatencyBucket(0));
+        assertEquals(3, AsyncWorkQueue.getLatencyBucket(7));
+        assertEquals(VR.QueueMetrics.getNumBuckets() - 1,
+                AsyncWorkQueue.getLatencyBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void emptyHistogram() {
+        VR.QueueMetrics metrics = newMetrics(counts(), 0);
+        assertEquals(0, metrics.getNumStarted());
+        assertEquals(0, metrics.getMeanWaitTime());
+        assertEquals(0, metrics.getWaitTimePercentile(50));
+        assertEquals(0, metrics.getWaitTimePercentile(100));
+    }
+
+    @Test
+    public void percentileIsUpperBoundOfBucketHoldingRank() {
+        /*
+         * 50 in [4, 8) ms, 40 in [16, 32) ms, 9 in [64, 128) ms, 1 in [512, 1024) ms
+         */
+        VR.QueueMetrics metrics = newMetrics(counts(3, 50, 5, 40, 7, 9, 10, 1), 0);
+        assertEquals(100, metrics.getNumStarted());
+        assertEquals(8, metrics.getWaitTimePercentile(0));
+        assertEquals(8, metrics.getWaitTimePercentile(1));
+        assertEquals(8, metrics.getWaitTimePercentile(50));
+        assertEquals(32, metrics.getWaitTimePercentile(50.5));
+        assertEquals(32, metrics.getWaitTimePercentile(90));
+        assertEquals(128, metrics.getWaitTimePercentile(91));
+        assertEquals(128, metrics.getWaitTimePercentile(99));
+        assertEquals(1024, metrics.getWaitTimePercentile(99.9));
+        assertEquals(1024, metrics.getWaitTimePercentile(100));
+    }
+
+    @Test
+    public void percentileOutOfRangeIsClamped() {
+        VR.QueueMetrics metrics = newMetrics(counts(2, 3, 6, 1), 0);
+        assertEquals(4, metrics.getWaitTimePercentile(-10));
+        assertEquals(64, metrics.getWaitTimePercentile(250));
+    }
+
+    @Test
+    public void lastBucketIsUnbounded() {
+        int last = VR.QueueMetrics.getNumBuckets() - 1;
+        VR.QueueMetrics metrics = newMetrics(counts(0, 1, last, 1), 0);
+        assertEquals(1, metrics.getWaitTimePercentile(50));
+        assertEquals(Long.MAX_VALUE, metrics.getWaitTimePercentile(51));
+    }
+
+    @Test
+    public void meanUsesTotalOverCount() {
+        VR.QueueMetrics metrics = newMetrics(counts(1, 2, 4, 2), 30);
+        assertEquals(4, metrics.getNumStarted());
+        assertEquals(7, metrics.getMeanWaitTime());
+        assertEquals(0, metrics.getMeanServiceTime());
+    }
+
+    @Test
+    public void histogramsAreCopies() {
+        long[] waitTimes = counts(1, 1);
+        VR.QueueMetrics metrics = newMetrics(waitTimes, 1);
+        metrics.getWaitTimeHistogram()[1] = 100;
+        assertEquals(1, metrics.getWaitTimeHistogram()[1]);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2016 Samsung Electronics America
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.samsung.msca.samsungvr.sdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UploadJournalTest {
+
+    private File mDir;
+    private UploadJournal mJournal;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("journal", "");
+        assertTrue(mDir.delete());
+        mJournal = new UploadJournal(new File(mDir, "uploads"));
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static UploadJournal.Entry newEntry(String userId, String videoId, String title) {
+        return new UploadJournal.Entry(userId, videoId, "upload-" + videoId, title,
+                "description", UserVideo.Permission.UNLISTED, 5 * 1024 * 1024, 10, -1);
+    }
+
+    private File getJournalFile() {
+        File[] files = new File(mDir, "uploads").listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private static void appendBytes(File file, byte[] bytes) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file, true);
+        try {
+            fos.write(bytes);
+        } finally {
+            fos.close();
+        }
+    }
+
+    @Test
+    public void roundTrip() {
+        assertTrue(mJournal.create(newEntry("user", "video", "title")));
+        List<UploadJournal.Entry> entries = mJournal.load("user");
+        assertEquals(1, entries.size());
+        UploadJournal.Entry entry = entries.get(0);
+        assertEquals("user", entry.mUserId);
+        assertEquals("video", entry.mVideoId);
+        assertEquals("upload-video", entry.mUploadId);
+        assertEquals("title", entry.mTitle);
+        assertEquals("description", entry.mDescription);
+        assertEquals(UserVideo.Permission.UNLISTED, entry.mPermission);
+        assertEquals(5 * 1024 * 1024, entry.mChunkSize);
+        assertEquals(10, entry.mNumChunks);
+        assertEquals(-1, entry.mLastSuccessfulChunk);
+    }
+
+    @Test
+    public void loadOnlyReturnsUploadsOfTheUser() {
+        assertTrue(mJournal.create(newEntry("user", "video1", "title")));
+        assertTrue(mJournal.create(newEntry("other", "video2", "title")));
+        List<UploadJournal.Entry> entries = mJournal.load("user");
+        assertEquals(1, entries.size());
+        assertEquals("video1", entries.get(0).mVideoId);
+        assertEquals(1, mJournal.load("other").size());
+        assertEquals(0, mJournal.load("nobody").size());
+    }
+
+    @Test
+    public void appendAdvancesLastSuccessfulChunk() {
+        assertTrue(mJournal.create(newEntry("user", "video", "title")));
+        assertTrue(mJournal.append("video", 0));
+        assertTrue(mJournal.append("video", 3));
+        assertTrue(mJournal.append("video", 2));
+        assertEquals(3, mJournal.load("user").get(0).mLastSuccessfulChunk);
+        assertTrue(mJournal.append("video", 42));
+        assertEquals(9, mJournal.load("user").get(0).mLastSuccessfulChunk);
+    }
+
+    @Test
+    public void appendWithoutJournalFails() {
+        assertFalse(mJournal.append("video", 0));
+        assertEquals(0, mJournal.load("user").size());
+    }
+
+    @Test
+    public void tornRecordIsIgnored() throws IOException {
+        assertTrue(mJournal.create(newEntry("user", "video", "title")));
+        assertTrue(mJournal.append("video", 4));
+        appendBytes(getJournalFile(), new byte[] { 0, 0 });
+        List<UploadJournal.Entry> entries = mJournal.load("user");
+        assertEquals(1, entries.size());
+        assertEquals(4, entries.get(0).mLastSuccessfulChunk);
+    }
+
+    @Test
+    public void truncatedHeaderIsDeleted() throws IOException {
+        assertTrue(mJournal.create(newEntry("user", "video", "title")));
+        File file = getJournalFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 6);
+        } finally {
+            raf.close();
+        }
+        assertEquals(0, mJournal.load("user").size());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void badMagicIsDeleted() throws IOException {
+        assertTrue(mJournal.create(newEntry("user", "video", "title")));
+        File file = getJournalFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeInt(0x56524a31);
+        } finally {
+            raf.close();
+        }
+        assertEquals(0, mJournal.load("user").size());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void longStringsRoundTrip() {
+        StringBuilder title = new StringBuilder();
+        while (title.length() < 100000) {
+            title.append("\u00e9t\u00e9 \u4e2d\u6587 \ud83c\udfa5 ");
+        }
+        assertTrue(mJournal.create(newEntry("user", "video", title.toString())));
+        assertEquals(title.toString(), mJournal.load("user").get(0).mTitle);
+    }
+
+    @Test
+    public void nullStringsRoundTrip() {
+        assertTrue(mJournal.create(new UploadJournal.Entry("user", "video", "upload", null,
+                null, null, 1024, 1, -1)));
+        UploadJournal.Entry entry = mJournal.load("user").get(0);
+        assertNull(entry.mTitle);
+        assertNull(entry.mDescription);
+        assertNull(entry.mPermission);
+    }
+
+    @Test
+    public void oversizedStringFailsCreate() {
+        StringBuilder title = new StringBuilder();
+        while (title.length() <= 1024 * 1024) {
+            title.append("0123456789abcdef");
+        }
+        assertFalse(mJournal.create(newEntry("user", "video", title.toString())));
+        File[] files = new File(mDir, "uploads").listFiles();
+        assertEquals(0, files.length);
+    }
+
+    @Test
+    public void createReplacesExisting() {
+        assertTrue(mJournal.create(newEntry("user", "video", "old")));
+        assertTrue(mJournal.append("video", 5));
+        assertTrue(mJournal.create(newEntry("user", "video", "new")));
+        UploadJournal.Entry entry = mJournal.load("user").get(0);
+        assertEquals("new", entry.mTitle);
+        assertEquals(-1, entry.mLastSuccessfulChunk);
+    }
+
+    @Test
+    public void removeDeletesJournal() {
+        assertTrue(mJournal.create(newEntry("user", "video", "title")));
+        assertTrue(mJournal.remove("video"));
+        assertEquals(0, mJournal.load("user").size());
+        assertFalse(mJournal.remove("video"));
+    }
+
+    @Test
+    public void unsafeVideoIdsMapToSeparateFiles() {
+        assertTrue(mJournal.create(newEntry("user", "../video", "title")));
+        assertTrue(mJournal.create(newEntry("user", "video/2", "title")));
+        assertEquals(2, new File(mDir, "uploads").listFiles().length);
+        assertTrue(mJournal.append("../video", 1));
+        for (UploadJournal.Entry entry : mJournal.load("user")) {
+            assertEquals("../video".equals(entry.mVideoId) ? 1 : -1, entry.mLastSuccessfulChunk);
+        }
+    }
+}
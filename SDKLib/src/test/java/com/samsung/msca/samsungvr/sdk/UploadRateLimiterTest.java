@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016 Samsung Electronics America
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.samsung.msca.samsungvr.sdk;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UploadRateLimiterTest {
+
+    private static class TestLimiter extends UploadRateLimiter {
+
+        long mNow;
+
+        TestLimiter(long bytesPerSecond) {
+            super(bytesPerSecond);
+        }
+
+        @Override
+        long now() {
+            return mNow;
+        }
+    }
+
+    @Test
+    public void unlimited() {
+        TestLimiter limiter = new TestLimiter(0);
+        assertFalse(limiter.isLimited());
+        assertEquals(0, limiter.tryAcquire(Integer.MAX_VALUE));
+        assertEquals(0, limiter.tryAcquire(Integer.MAX_VALUE));
+
+        limiter = new TestLimiter(-5);
+        assertEquals(0, limiter.getRate());
+        assertFalse(limiter.isLimited());
+    }
+
+    @Test
+    public void waitsForTokens() {
+        TestLimiter limiter = new TestLimiter(1000);
+        assertTrue(limiter.isLimited());
+        assertEquals(1, limiter.tryAcquire(100));
+        limiter.mNow = 100;
+        assertEquals(0, limiter.tryAcquire(100));
+        assertEquals(1, limiter.tryAcquire(100));
+    }
+
+    @Test
+    public void largeReadGoesIntoDebt() {
+        TestLimiter limiter = new TestLimiter(1000);
+        limiter.mNow = 1000;
+        assertEquals(0, limiter.tryAcquire(1000));
+        /*
+         * Only the 250 ms burst had accrued, so 750 bytes are owed
+         */
+        assertEquals(750, limiter.tryAcquire(100));
+        limiter.mNow = 1500;
+        assertEquals(250, limiter.tryAcquire(100));
+        limiter.mNow = 1751;
+        assertEquals(0, limiter.tryAcquire(100));
+    }
+
+    @Test
+    public void idleTimeIsCappedAtBurst() {
+        TestLimiter limiter = new TestLimiter(1000);
+        limiter.mNow = 60000;
+        assertEquals(0, limiter.tryAcquire(250));
+        assertEquals(1, limiter.tryAcquire(1));
+    }
+
+    @Test
+    public void lowerRateClampsTokens() {
+        TestLimiter limiter = new TestLimiter(1000);
+        limiter.mNow = 1000;
+        limiter.setRate(100);
+        assertEquals(100, limiter.getRate());
+        /*
+         * 250 tokens were clamped to the new burst of 25
+         */
+        assertEquals(0, limiter.tryAcquire(125));
+        assertEquals(1000, limiter.tryAcquire(1));
+    }
+
+    @Test
+    public void rateChangeKeepsDebt() {
+        TestLimiter limiter = new TestLimiter(1000);
+        limiter.mNow = 1000;
+        assertEquals(0, limiter.tryAcquire(1000));
+        limiter.setRate(2000);
+        assertEquals(375, limiter.tryAcquire(1));
+        limiter.setRate(0);
+        assertEquals(0, limiter.tryAcquire(1));
+    }
+
+    @Test
+    public void sustainedRateMatchesLimit() {
+        long rate = 64 * 1024;
+        TestLimiter limiter = new TestLimiter(rate);
+        long sent = 0;
+        while (limiter.mNow < 60000) {
+            long wait = limiter.tryAcquire(8192);
+            if (0 == wait) {
+                sent += 8192;
+            } else {
+                limiter.mNow += wait;
+            }
+        }
+        long expected = rate * limiter.mNow / 1000;
+        assertTrue("sent: " + sent + " expected: " + expected,
+                Math.abs(sent - expected) <= 8192 + rate * 250 / 1000);
+    }
+}
@@ -26,12 +26,17 @@ import android.util.Log;
 
 import com.samsung.msca.samsungvr.sdk.HttpPlugin;
 
+import java.io.EOFException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
@@ -40,7 +45,7 @@ class HttpPluginHttpUrlConnection implements HttpPlugin.RequestFactory {
 
     static final String TAG = Util.getLogTag(HttpPluginHttpUrlConnection.class);
 
-    private static class ReadableRequest implements HttpPlugin.ReadableRequest {
+    private static class ReadableRequest implements HttpPlugin.ResponseHeadersRequest {
 
         protected final HttpURLConnection mConnection;
 
@@ -129,9 +134,18 @@ class HttpPluginHttpUrlConnection implements HttpPlugin.RequestFactory {
             return mConnection.getResponseCode();
         }
 
+        @Override
+        public String responseHeader(String name) throws Exception {
+            if (null == mConnection) {
+                throw new IllegalStateException("Connection never initialized");
+            }
+            return mConnection.getHeaderField(name);
+        }
+
     }
 
-    private static class ReadableWritableRequest extends ReadableRequest implements HttpPlugin.WritableRequest {
+    private static class ReadableWritableRequest extends ReadableRequest
+            implements HttpPlugin.ChannelWritableRequest {
 
         private ReadableWritableRequest(String urlStr, String method, String headers[][]) throws Exception {
             super(urlStr, method, headers);
@@ -148,6 +162,36 @@ class HttpPluginHttpUrlConnection implements HttpPlugin.RequestFactory {
             output.close();
         }
 
+        @Override
+        public void output(ByteBuffer prefix, FileChannel channel, long position, long length,
+                           ByteBuffer suffix, byte[] buf) throws Exception {
+            if (null == mConnection) {
+                throw new IllegalStateException("Connection never initialized");
+            }
+            OutputStream output = mConnection.getOutputStream();
+            WritableByteChannel target = Channels.newChannel(output);
+            write(target, prefix);
+            while (length > 0) {
+                long sent = channel.transferTo(position, length, target);
+                if (sent < 1) {
+                    throw new EOFException();
+                }
+                position += sent;
+                length -= sent;
+            }
+            write(target, suffix);
+            output.close();
+        }
+
+        private static void write(WritableByteChannel target, ByteBuffer data) throws Exception {
+            if (null == data) {
+                return;
+            }
+            while (data.hasRemaining()) {
+                target.write(data);
+            }
+        }
+
     }
 
     private static class GetRequest extends ReadableRequest implements HttpPlugin.GetRequest {
@@ -41,10 +41,7 @@ import com.samsung.msca.samsungvr.sdk.User;
 import com.samsung.msca.samsungvr.sdk.UserLiveEvent;
 import com.samsung.msca.samsungvr.sdk.VR;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileDescriptor;
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.io.IOException;
 
 public class PublishLiveEventFromFileFragment extends BaseFragment {
 
@@ -172,6 +169,7 @@ public class PublishLiveEventFromFileFragment extends BaseFragment {
         private final Context mContext;
         private final TextView mViewStatus, mViewRawProgress;
         private ProgressBar mUploadProgress;
+        private ParcelFileDescriptor mSource;
 
 
         public UploadSegmentViewHolder(Context context, LayoutInflater inflater,
@@ -213,18 +211,12 @@ public class PublishLiveEventFromFileFragment extends BaseFragment {
             mViewStatus = (TextView)mRootView.findViewById(R.id.status);
             mUploadProgress = (ProgressBar)mRootView.findViewById(R.id.upload_progress);
             try {
-                ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(uri, "r");
-                FileDescriptor fd = pfd.getFileDescriptor();
-                InputStream is = new FileInputStream(fd);
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-                byte[] temp = new byte[2048];
-                int read;
-                while ((read = is.read(temp)) != -1) {
-                    bos.write(temp, 0, read);
+                mSource = mContext.getContentResolver().openFileDescriptor(uri, "r");
+                if (!mUserLiveEvent.uploadSegment(mSource, mUploadCallback2, null, mViewCancel)) {
+                    closeSource();
                 }
-                mUserLiveEvent.uploadSegmentAsBytes(bos.toByteArray(), mUploadCallback2, null, null);
             } catch (Exception ex) {
+                closeSource();
                 Resources res = mContext.getResources();
                 Log.e(TAG, "???", ex);
                 String text = String.format(res.getString(R.string.failure_with_exception), ex.getMessage());
@@ -233,12 +225,29 @@ public class PublishLiveEventFromFileFragment extends BaseFragment {
 
         }
 
+        /*
+         * The SDK hands the descriptor back with the callback, and leaves closing it to us
+         */
+
+        private void closeSource() {
+            if (null == mSource) {
+                return;
+            }
+            try {
+                mSource.close();
+            } catch (IOException ex) {
+                Log.e(TAG, "Failed to close segment", ex);
+            }
+            mSource = null;
+        }
+
 
         private UserLiveEvent.Result.UploadSegmentAsBytes mUploadCallback2 =
                 new UserLiveEvent.Result.UploadSegmentAsBytes() {
 
             @Override
             public void onSuccess(Object closure) {
+                closeSource();
                 if (!mDestroyed) {
                     mViewCancel.setEnabled(false);
                 }
@@ -263,6 +272,7 @@ public class PublishLiveEventFromFileFragment extends BaseFragment {
 
             @Override
             public void onFailure(Object closure, int status) {
+                closeSource();
                 if (!mDestroyed) {
                     Resources res = mContext.getResources();
                     String text = String.format(res.getString(R.string.failure_with_status), status);
@@ -273,11 +283,13 @@ public class PublishLiveEventFromFileFragment extends BaseFragment {
 
             @Override
             public void onCancelled(Object closure) {
+                closeSource();
                 mViewCancel.setEnabled(false);
             }
 
             @Override
             public void onException(Object closure, Exception ex) {
+                closeSource();
                 if (!mDestroyed) {
                     Resources res = mContext.getResources();
                     String text = String.format(res.getString(R.string.failure_with_exception), ex.getMessage());
@@ -288,6 +300,7 @@ public class PublishLiveEventFromFileFragment extends BaseFragment {
 
             @Override
             public void onSegmentUploadComplete(Object o, long t) {
+                closeSource();
                 mViewStatus.setText("Time: " + t);
             }
         };